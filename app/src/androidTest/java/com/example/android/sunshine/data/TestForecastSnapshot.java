@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Verifies that a {@link ForecastSnapshot} holds the same forecast it was built from, sorted by
+ * date, and that {@link ForecastSnapshotCache} never takes a snapshot that was read before the
+ * cache was last invalidated.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastSnapshot {
+
+    @After
+    public void tearDown() {
+        ForecastSnapshotCache.invalidate();
+    }
+
+    @Test
+    public void testFromContentValuesSortsByDate() {
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+
+        /* Hand the days over back to front */
+        ContentValues[] reversedValues = new ContentValues[weatherValues.length];
+        for (int i = 0; i < weatherValues.length; i++) {
+            reversedValues[i] = weatherValues[weatherValues.length - 1 - i];
+        }
+
+        ForecastSnapshot snapshot = ForecastSnapshot.fromContentValues(reversedValues);
+
+        assertEquals(weatherValues.length, snapshot.size());
+        for (int i = 0; i < weatherValues.length; i++) {
+            ContentValues expected = weatherValues[i];
+            assertEquals((long) expected.getAsLong(WeatherEntry.COLUMN_DATE),
+                    snapshot.getDate(i));
+            assertEquals((int) expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    snapshot.getWeatherId(i));
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    snapshot.getMaxTemp(i), 0);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    snapshot.getPressure(i), 0);
+            assertEquals(i, snapshot.indexOfDate(snapshot.getDate(i)));
+        }
+    }
+
+    @Test
+    public void testStartingFromDropsEarlierDays() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.fromContentValues(createBulkInsertTestWeatherValues());
+        long secondDay = snapshot.getDate(1);
+
+        ForecastSnapshot upcoming = snapshot.startingFrom(secondDay);
+
+        assertEquals(snapshot.size() - 1, upcoming.size());
+        assertEquals(secondDay, upcoming.getDate(0));
+        assertEquals(-1, upcoming.indexOfDate(snapshot.getDate(0)));
+        assertSame("Nothing to drop, so the snapshot itself should be returned",
+                snapshot, snapshot.startingFrom(snapshot.getDate(0)));
+    }
+
+    @Test
+    public void testFromCursorLeavesMissingColumnsEmpty() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_MAX_TEMP,
+        });
+        cursor.addRow(new Object[]{TestUtilities.DATE_NORMALIZED, 21.5});
+
+        ForecastSnapshot snapshot = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+
+        assertEquals(1, snapshot.size());
+        assertEquals(21.5, snapshot.getMaxTemp(0), 0);
+        assertEquals(0, snapshot.getWeatherId(0));
+        assertTrue(Double.isNaN(snapshot.getHumidity(0)));
+    }
+
+    @Test
+    public void testSetDropsSnapshotReadBeforeInvalidate() {
+        ForecastSnapshot readBeforeWrite = ForecastSnapshot.fromContentValues(new ContentValues[]{
+                TestUtilities.createTestWeatherContentValues()});
+        long staleGeneration = ForecastSnapshotCache.getGeneration();
+
+        /* Something writes the weather while the query above was running */
+        ForecastSnapshotCache.invalidate();
+
+        assertFalse(ForecastSnapshotCache.set(readBeforeWrite, staleGeneration));
+        assertNull(ForecastSnapshotCache.get());
+
+        ForecastSnapshot readAfterWrite =
+                ForecastSnapshot.fromContentValues(createBulkInsertTestWeatherValues());
+        assertTrue(ForecastSnapshotCache.set(readAfterWrite,
+                ForecastSnapshotCache.getGeneration()));
+        assertSame(readAfterWrite, ForecastSnapshotCache.get());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.NotificationUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the queries the app makes most often and fails if SQLite would have
+ * to scan the whole weather table or sort its results in a temporary B-tree to answer them.
+ * <p>
+ * The queries are built the same way WeatherProvider builds them, with the same projections,
+ * selections and sort orders as MainActivity, DetailActivity and NotificationUtils.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestQueryPlans {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    /*
+     * WeatherProvider restricts every query to a single location, which it adds to the caller's
+     * selection last.
+     */
+    @Test
+    public void testMainForecastQueryUsesCoveringIndex() {
+        String query = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                "(" + WeatherEntry.getSqlSelectForTodayOnwards() + ") AND "
+                        + WeatherEntry.COLUMN_LOCATION_KEY + " = ? ",
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC",
+                null);
+
+        String queryPlan = explainQueryPlan(query,
+                new String[]{WeatherEntry.PRIMARY_LOCATION_KEY});
+
+        assertNoFullScanOrSort(queryPlan);
+        assertTrue("Main forecast query should be answered from the covering index alone."
+                        + "\nQuery plan: " + queryPlan,
+                queryPlan.contains("COVERING INDEX " + WeatherDbHelper.INDEX_FORECAST_LIST));
+    }
+
+    @Test
+    public void testDetailQueryIsPointLookup() {
+        assertPointLookup(DetailActivity.WEATHER_DETAIL_PROJECTION);
+    }
+
+    @Test
+    public void testNotificationQueryIsPointLookup() {
+        assertPointLookup(NotificationUtils.WEATHER_NOTIFICATION_PROJECTION);
+    }
+
+    /*
+     * WeatherProvider answers CODE_WEATHER_WITH_DATE with "location_key = ? AND date = ?", so
+     * looking up a single day should only ever search an index for that location and date.
+     */
+    private void assertPointLookup(String[] projection) {
+        String query = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME,
+                projection,
+                WeatherEntry.COLUMN_LOCATION_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ? ",
+                null,
+                null,
+                null,
+                null);
+
+        String queryPlan = explainQueryPlan(query, new String[]{
+                WeatherEntry.PRIMARY_LOCATION_KEY, String.valueOf(TestUtilities.DATE_NORMALIZED)});
+
+        assertNoFullScanOrSort(queryPlan);
+        assertTrue("Single day query should search an index on the date."
+                        + "\nQuery plan: " + queryPlan,
+                queryPlan.contains("SEARCH") && queryPlan.contains("INDEX"));
+    }
+
+    /*
+     * Older versions of SQLite report a full scan as "SCAN TABLE weather", newer versions as
+     * "SCAN weather". Neither should show up for the table itself, nor should a sort.
+     */
+    private static void assertNoFullScanOrSort(String queryPlan) {
+        assertFalse("Query scans the whole weather table.\nQuery plan: " + queryPlan,
+                queryPlan.contains("SCAN TABLE " + WeatherEntry.TABLE_NAME)
+                        || queryPlan.matches("(?s).*SCAN " + WeatherEntry.TABLE_NAME + "(\\s.*)?"));
+        assertFalse("Query sorts its results in a temporary B-tree.\nQuery plan: " + queryPlan,
+                queryPlan.contains("USE TEMP B-TREE"));
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for the given query and joins the "detail" column of every row
+     * into a single String, one line per row.
+     */
+    private String explainQueryPlan(String query, String[] selectionArgs) {
+        Cursor planCursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query, selectionArgs);
+        StringBuilder queryPlan = new StringBuilder();
+        try {
+            int detailIndex = planCursor.getColumnIndexOrThrow("detail");
+            while (planCursor.moveToNext()) {
+                queryPlan.append(planCursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            planCursor.close();
+        }
+        return queryPlan.toString();
+    }
+}
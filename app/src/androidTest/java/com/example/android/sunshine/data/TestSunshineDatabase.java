@@ -24,6 +24,8 @@ import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.R;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -193,7 +195,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -325,8 +327,15 @@ public class TestSunshineDatabase {
                     -1,
                     shouldFailRowId);
 
-            /* "Restore" the original value in testValues */
-            testValues.put(columnName, testValuesReferenceCopy.getAsDouble(columnName));
+            /*
+             * "Restore" the original value in testValues. The location column defaults to the
+             * user's own location, so the test values leave it out.
+             */
+            if (testValuesReferenceCopy.containsKey(columnName)) {
+                testValues.put(columnName, testValuesReferenceCopy.getAsDouble(columnName));
+            } else {
+                testValues.remove(columnName);
+            }
         }
 
         /* Close database */
@@ -382,37 +391,73 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. A version
+     * 3 database has neither the forecast list index nor the location column. Upgrading it should
+     * keep the weather we already have, as the weather of the user's own location, and add both.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
-        testInsertSingleRecordIntoWeatherTable();
+        /* Recreate the weather table the way version 3 created it, without any index */
+        createPreLocationWeatherTable();
 
-        dbHelper.onUpgrade(database, 13, 14);
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        database.insert(REFLECTED_TABLE_NAME, null, testWeatherValues);
+        testWeatherValues.put(REFLECTED_COLUMN_DATE,
+                testWeatherValues.getAsLong(REFLECTED_COLUMN_DATE) + TimeUnit.DAYS.toMillis(1));
+        database.insert(REFLECTED_TABLE_NAME, null, testWeatherValues);
 
-        /*
-         * This Cursor will contain the names of each table in our database and we will use it to
-         * make sure that our weather table is still in the database after upgrading.
-         */
-        Cursor tableNameCursor = database.rawQuery(
-                "SELECT name FROM sqlite_master WHERE type='table' AND name='" + REFLECTED_TABLE_NAME + "'",
+        dbHelper.onUpgrade(database, 3, 5);
+
+        assertEquals("The weather table should still exist after upgrading.",
+                1, countSchemaEntries("table", REFLECTED_TABLE_NAME));
+        assertEquals("The forecast list index should exist after upgrading.",
+                1, countSchemaEntries("index", WeatherDbHelper.INDEX_FORECAST_LIST));
+
+        Cursor weatherCursor = database.query(
+                REFLECTED_TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOCATION_KEY},
+                null,
+                null,
+                null,
+                null,
                 null);
 
-        /*
-         * Our database should only contain one table, and so the above query should have one
-         * record in the cursor that queried for our table names.
-         */
-        int expectedTableCount = 1;
-        String shouldHaveSingleTable = "There should only be one table returned from this query.";
-        assertEquals(shouldHaveSingleTable,
-                expectedTableCount,
-                tableNameCursor.getCount());
+        int expectedRecordCountAfterUpgrade = 2;
+        /* Upgrading from version 3 must not throw away the weather we already have */
+        String weatherTableShouldBeKept =
+                "Weather table should keep its records after upgrade, but didn't."
+                        + "\nNumber of records: ";
+        assertEquals(weatherTableShouldBeKept,
+                expectedRecordCountAfterUpgrade,
+                weatherCursor.getCount());
 
-        /* We are done verifying our table names, so we can close this cursor */
-        tableNameCursor.close();
+        while (weatherCursor.moveToNext()) {
+            assertEquals("Existing weather should belong to the user's own location",
+                    WeatherContract.WeatherEntry.PRIMARY_LOCATION_KEY,
+                    weatherCursor.getString(0));
+        }
+
+        /* Test is over, close the cursor */
+        weatherCursor.close();
+        database.close();
+    }
+
+    /**
+     * Databases from before version 3 have a different table layout, so upgrading them should
+     * DROP the weather table and recreate it, together with its index.
+     */
+    @Test
+    public void testOnUpgradeFromOldSchemaRecreatesTable() {
+
+        testInsertSingleRecordIntoWeatherTable();
+
+        dbHelper.onUpgrade(database, 2, 5);
+
+        assertEquals("There should only be one weather table after upgrading.",
+                1, countSchemaEntries("table", REFLECTED_TABLE_NAME));
+        assertEquals("The forecast list index should exist after upgrading.",
+                1, countSchemaEntries("index", WeatherDbHelper.INDEX_FORECAST_LIST));
 
         Cursor shouldBeEmptyWeatherCursor = database.query(
                 REFLECTED_TABLE_NAME,
@@ -433,9 +478,130 @@ public class TestSunshineDatabase {
                 shouldBeEmptyWeatherCursor.getCount());
 
         /* Test is over, close the cursor */
+        shouldBeEmptyWeatherCursor.close();
         database.close();
     }
 
+    /**
+     * Version 4 had no location column and only allowed one row per date. Upgrading should keep
+     * its weather as the weather of the user's own location, and from then on allow the same
+     * date for different locations.
+     */
+    @Test
+    public void testOnUpgradeFromVersion4AddsLocationColumn() {
+
+        /* Recreate the weather table and index the way version 4 created them */
+        createPreLocationWeatherTable();
+        database.execSQL("CREATE INDEX " + WeatherDbHelper.INDEX_FORECAST_LIST
+                + " ON " + REFLECTED_TABLE_NAME + " ("
+                + REFLECTED_COLUMN_DATE + ", "
+                + REFLECTED_COLUMN_MAX + ", "
+                + REFLECTED_COLUMN_MIN + ", "
+                + REFLECTED_COLUMN_WEATHER_ID + ");");
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        database.insert(REFLECTED_TABLE_NAME, null, testWeatherValues);
+
+        dbHelper.onUpgrade(database, 4, 5);
+
+        assertEquals("The forecast list index should exist after upgrading.",
+                1, countSchemaEntries("index", WeatherDbHelper.INDEX_FORECAST_LIST));
+
+        Cursor upgradedCursor = database.query(
+                REFLECTED_TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOCATION_KEY},
+                null,
+                null,
+                null,
+                null,
+                null);
+        assertTrue("Upgrading from version 4 should keep its weather",
+                upgradedCursor.moveToFirst());
+        assertEquals("Existing weather should belong to the user's own location",
+                WeatherContract.WeatherEntry.PRIMARY_LOCATION_KEY,
+                upgradedCursor.getString(0));
+        upgradedCursor.close();
+
+        /* The same date for another location must not replace the existing row */
+        testWeatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_KEY, "Paris,FR");
+        database.insert(REFLECTED_TABLE_NAME, null, testWeatherValues);
+
+        Cursor bothLocationsCursor = database.query(
+                REFLECTED_TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Two locations should be able to have weather for the same date",
+                2, bothLocationsCursor.getCount());
+        bothLocationsCursor.close();
+        database.close();
+    }
+
+    /*
+     * Replaces the weather table with the one versions 3 and 4 created: no location column, and
+     * one row per date.
+     */
+    private void createPreLocationWeatherTable() {
+        database.execSQL("DROP TABLE " + REFLECTED_TABLE_NAME);
+        database.execSQL("CREATE TABLE " + REFLECTED_TABLE_NAME + " ("
+                + WeatherContract.WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + REFLECTED_COLUMN_DATE + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_MIN + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_MAX + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_PRESSURE + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_WIND_DIR + " REAL NOT NULL, "
+                + " UNIQUE (" + REFLECTED_COLUMN_DATE + ") ON CONFLICT REPLACE);");
+    }
+
+    private int countSchemaEntries(String type, String name) {
+        Cursor schemaCursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type=? AND name=?",
+                new String[]{type, name});
+        int count = schemaCursor.getCount();
+        schemaCursor.close();
+        return count;
+    }
+
+    /**
+     * Readers shouldn't be locked out while a sync writes the forecast, which requires the
+     * database to use write-ahead logging rather than a rollback journal.
+     */
+    @Test
+    public void testWriteAheadLoggingEnabled() {
+        Cursor journalModeCursor = database.rawQuery("PRAGMA journal_mode", null);
+
+        assertTrue("Error: PRAGMA journal_mode returned no rows",
+                journalModeCursor.moveToFirst());
+        assertEquals("Error: The weather database should use write-ahead logging.",
+                "wal", journalModeCursor.getString(0).toLowerCase());
+
+        journalModeCursor.close();
+    }
+
+    /**
+     * The page cache size from R.integer.weather_db_page_cache_size_kb belongs to the primary
+     * connection, which every transaction runs on. Reader connections aren't configured by
+     * WeatherDbHelper, so this only asks from within a transaction.
+     */
+    @Test
+    public void testPageCacheSizeAppliesToPrimaryConnection() {
+        int pageCacheSizeKb = context.getResources()
+                .getInteger(R.integer.weather_db_page_cache_size_kb);
+
+        database.beginTransaction();
+        try {
+            Cursor cacheSizeCursor = database.rawQuery("PRAGMA cache_size", null);
+            assertTrue("Error: PRAGMA cache_size returned no rows",
+                    cacheSizeCursor.moveToFirst());
+            /* A negative cache_size is a size in KiB */
+            assertEquals("Error: The primary connection should use the configured page cache",
+                    -pageCacheSizeKb, cacheSizeCursor.getInt(0));
+            cacheSizeCursor.close();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
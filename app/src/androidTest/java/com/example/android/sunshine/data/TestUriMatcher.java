@@ -37,6 +37,10 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_SYNC_DIR = WeatherContract.WeatherEntry.CONTENT_SYNC_URI;
+
+    /* A tracked location whose query is all digits, which must not be mistaken for a date */
+    private static final String TEST_LOCATION_KEY = "94043";
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -101,5 +105,44 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test that the incremental sync URI is matched, rather than mistaken for a date */
+        String weatherSyncUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_SYNC URI was matched incorrectly.";
+        assertEquals(weatherSyncUriCodeDoesNotMatch,
+                WeatherProvider.CODE_WEATHER_SYNC,
+                testMatcher.match(TEST_WEATHER_SYNC_DIR));
+    }
+
+    /**
+     * The URIs of a tracked location should match the same codes as those of the user's own
+     * location, and say which location they are for.
+     */
+    @Test
+    public void testLocationUrisMatchWeatherCodes() {
+        Uri locationUri = WeatherContract.WeatherEntry
+                .buildWeatherUriForLocation(TEST_LOCATION_KEY);
+        Uri locationWithDateUri = WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(
+                TEST_LOCATION_KEY, TestUtilities.DATE_NORMALIZED);
+        Uri locationSyncUri = WeatherContract.WeatherEntry
+                .buildSyncUriForLocation(TEST_LOCATION_KEY);
+
+        assertEquals("Error: The location URI was matched incorrectly.",
+                REFLECTED_WEATHER_CODE, testMatcher.match(locationUri));
+        assertEquals("Error: The location URI with a date was matched incorrectly.",
+                REFLECTED_WEATHER_WITH_DATE_CODE, testMatcher.match(locationWithDateUri));
+        assertEquals("Error: The location sync URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_SYNC, testMatcher.match(locationSyncUri));
+
+        assertEquals("Error: The location key wasn't read back from the URI.",
+                TEST_LOCATION_KEY,
+                WeatherContract.WeatherEntry.getLocationKeyFromUri(locationWithDateUri));
+        assertEquals("Error: A URI without a location should be the user's own location.",
+                WeatherContract.WeatherEntry.PRIMARY_LOCATION_KEY,
+                WeatherContract.WeatherEntry.getLocationKeyFromUri(TEST_WEATHER_WITH_DATE_DIR));
+        assertEquals("Error: The user's own location should use the existing URIs.",
+                TEST_WEATHER_DIR,
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(
+                        WeatherContract.WeatherEntry.PRIMARY_LOCATION_KEY));
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures how many rows per second {@link WeatherBatchWriter} inserts, compared to calling
+ * SQLiteDatabase#insert once per ContentValues as WeatherProvider used to. Results are written
+ * to logcat under the tag of this class.
+ * <p>
+ * The batch sizes are a regular 14 day forecast, a larger batch and a very large batch, to see
+ * how both approaches scale.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherBatchWriterBenchmark {
+
+    private static final String TAG = TestWeatherBatchWriterBenchmark.class.getSimpleName();
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmarkFourteenRows() {
+        benchmark(14);
+    }
+
+    @Test
+    public void benchmarkOneThousandRows() {
+        benchmark(1000);
+    }
+
+    @Test
+    public void benchmarkOneHundredThousandRows() {
+        benchmark(100000);
+    }
+
+    private void benchmark(int rowCount) {
+        ForecastBatch forecastBatch = createForecastBatch(rowCount);
+        ContentValues[] contentValues = forecastBatch.toContentValues();
+
+        /* Old path: SQLiteDatabase#insert, which compiles a new statement for every row */
+        clearWeatherTable();
+        long startNanos = System.nanoTime();
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues value : contentValues) {
+                mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        long insertNanos = System.nanoTime() - startNanos;
+        assertEquals(rowCount, countRows());
+
+        /* New path: one precompiled statement, ContentValues */
+        clearWeatherTable();
+        startNanos = System.nanoTime();
+        mDatabase.beginTransaction();
+        WeatherBatchWriter batchWriter = new WeatherBatchWriter(mDatabase);
+        try {
+            for (ContentValues value : contentValues) {
+                batchWriter.insert(value);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            batchWriter.close();
+            mDatabase.endTransaction();
+        }
+        long contentValuesNanos = System.nanoTime() - startNanos;
+        assertEquals(rowCount, countRows());
+
+        /* New path: one precompiled statement, primitive ForecastBatch */
+        clearWeatherTable();
+        startNanos = System.nanoTime();
+        mDatabase.beginTransaction();
+        batchWriter = new WeatherBatchWriter(mDatabase);
+        int rowsInserted;
+        try {
+            rowsInserted = batchWriter.insertAll(forecastBatch);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            batchWriter.close();
+            mDatabase.endTransaction();
+        }
+        long forecastBatchNanos = System.nanoTime() - startNanos;
+        assertEquals(rowCount, rowsInserted);
+        assertEquals(rowCount, countRows());
+
+        Log.i(TAG, rowCount + " rows:"
+                + " SQLiteDatabase#insert " + rowsPerSecond(rowCount, insertNanos) + " rows/s,"
+                + " compiled ContentValues " + rowsPerSecond(rowCount, contentValuesNanos) + " rows/s,"
+                + " compiled ForecastBatch " + rowsPerSecond(rowCount, forecastBatchNanos) + " rows/s");
+    }
+
+    private static ForecastBatch createForecastBatch(int rowCount) {
+        ForecastBatch forecastBatch = new ForecastBatch(rowCount);
+        long date = TestUtilities.DATE_NORMALIZED;
+        for (int i = 0; i < rowCount; i++) {
+            forecastBatch.add(date, 800 + i % 5, 10 + i % 7, 20 + i % 9,
+                    50 + i % 40, 1000 + i % 30, 1.5 + i % 11, i % 360);
+            date += SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        return forecastBatch;
+    }
+
+    private void clearWeatherTable() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDatabase, WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return nanos == 0 ? 0 : rowCount * 1000000000L / nanos;
+    }
+}
@@ -16,25 +16,42 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -423,6 +440,416 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * This test performs two incremental syncs through
+     * {@link WeatherContract.WeatherEntry#CONTENT_SYNC_URI}. The first one should insert every
+     * row. The second one changes a single day, and should only write that day, leave the other
+     * days alone and remove the day in the past that we put into the table behind the
+     * provider's back.
+     */
+    @Test
+    public void testIncrementalSyncOnlyWritesChangedRows() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] syncValues = createSyncTestWeatherValues();
+
+        int firstSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                syncValues);
+        assertEquals("First sync should insert every row",
+                syncValues.length, firstSyncCount);
+
+        /* Sneak in a day that has already passed */
+        ContentValues yesterdayValues = new ContentValues(syncValues[0]);
+        yesterdayValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                syncValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        - SunshineDateUtils.DAY_IN_MILLIS);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, yesterdayValues);
+        database.close();
+
+        /* Change the weather of a single day */
+        int changedDay = 2;
+        syncValues[changedDay].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+
+        int secondSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                syncValues);
+        assertEquals("Second sync should only write the changed row", 1, secondSyncCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The day in the past should have been pruned",
+                syncValues.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < syncValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testIncrementalSyncOnlyWritesChangedRows. Error validating WeatherEntry " + i,
+                    cursor,
+                    syncValues[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * A sync that changes every day of the forecast should still wake up observers only once.
+     */
+    @Test
+    public void testSyncFiresSingleNotification() {
+        ContentValues[] syncValues = createSyncTestWeatherValues();
+
+        /* Let any notification still waiting from an earlier test go out first */
+        SystemClock.sleep(WeatherChangeNotifier.COALESCE_WINDOW_MILLIS * 2);
+
+        int notificationsBefore = WeatherChangeNotifier.getNotificationsFired();
+        int syncCount = mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                syncValues);
+        int notificationsFired = WeatherChangeNotifier.getNotificationsFired() - notificationsBefore;
+
+        assertEquals("Sync should insert every row", syncValues.length, syncCount);
+        assertEquals("A sync should fire exactly one change notification", 1, notificationsFired);
+
+        /* Syncing the same forecast again changes nothing, so nobody should be woken up */
+        notificationsBefore = WeatherChangeNotifier.getNotificationsFired();
+        mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                syncValues);
+        assertEquals("A sync that changes nothing should not fire a notification",
+                0, WeatherChangeNotifier.getNotificationsFired() - notificationsBefore);
+    }
+
+    /**
+     * Streams a forecast into the provider through a {@link ForecastPipe} whose parser fails
+     * halfway, after the writer has already taken and written the first days. Those writes
+     * should be rolled back, leaving the weather that was stored before the sync as it was, and
+     * nobody should be told about a change.
+     */
+    @Test
+    public void testFailedPipeRollsBackSync() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] storedValues = createSyncTestWeatherValues();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_SYNC_URI, storedValues);
+
+        /* The same days with different weather, so that every one of them would be an update */
+        ContentValues[] syncValues = createSyncTestWeatherValues();
+        for (ContentValues syncValue : syncValues) {
+            syncValue.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    syncValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP) + 10);
+        }
+
+        /* Let any notification still waiting from the store above go out first */
+        SystemClock.sleep(WeatherChangeNotifier.COALESCE_WINDOW_MILLIS * 2);
+        int notificationsBefore = WeatherChangeNotifier.getNotificationsFired();
+
+        ContentProviderClient client = contentResolver
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull("Could not acquire the weather provider", client);
+        final WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+
+        try {
+            /*
+             * With room for a single day, each put only returns once the writer has taken the
+             * day before it, so by the time the third day is in, the first two have been taken.
+             */
+            ForecastBatch syncBatch = ForecastBatch.fromContentValues(syncValues);
+            final ForecastPipe pipe = new ForecastPipe(1);
+            Future<Integer> write = writerExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return provider.syncWeather(pipe);
+                }
+            });
+            pipe.put(syncBatch, 0);
+            pipe.put(syncBatch, 1);
+            pipe.put(syncBatch, 2);
+            pipe.fail(new IllegalStateException("Response ended early"));
+
+            try {
+                write.get();
+                fail("A failed pipe should make the sync throw");
+            } catch (ExecutionException expected) {
+                assertTrue("The sync should throw an IOException",
+                        expected.getCause() instanceof IOException);
+            }
+        } finally {
+            writerExecutor.shutdown();
+            client.release();
+        }
+
+        SystemClock.sleep(WeatherChangeNotifier.COALESCE_WINDOW_MILLIS * 2);
+        assertEquals("A failed sync should not fire a notification",
+                0, WeatherChangeNotifier.getNotificationsFired() - notificationsBefore);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("A failed sync should leave the stored rows in place",
+                storedValues.length, cursor.getCount());
+        for (ContentValues storedValue : storedValues) {
+            cursor.moveToNext();
+            TestUtilities.validateCurrentRecord(
+                    "A failed sync should leave the stored weather unchanged",
+                    cursor, storedValue);
+        }
+        cursor.close();
+    }
+
+    /**
+     * A forecast is all or nothing, so a {@link ForecastPipe} the parser failed should not hand
+     * out the days that were put before the failure, only the failure itself.
+     */
+    @Test
+    public void testFailedPipeDropsQueuedDays() throws Exception {
+        ForecastBatch syncBatch = ForecastBatch.fromContentValues(createSyncTestWeatherValues());
+        ForecastPipe pipe = new ForecastPipe(syncBatch.size());
+        pipe.put(syncBatch, 0);
+        pipe.put(syncBatch, 1);
+        IllegalStateException failure = new IllegalStateException("Response ended early");
+        pipe.fail(failure);
+
+        ForecastBatch taken = new ForecastBatch();
+        try {
+            pipe.take(taken);
+            fail("A failed pipe should throw instead of handing out the days still queued");
+        } catch (IOException expected) {
+            assertEquals("The parser's failure should be the cause", failure, expected.getCause());
+        }
+
+        /* Finishing after the failure changes nothing */
+        pipe.finish();
+        try {
+            pipe.take(taken);
+            fail("A failed pipe should keep throwing");
+        } catch (IOException expected) {
+            /* This is what we want */
+        }
+        assertTrue("A failed pipe should not hand out any day", taken.isEmpty());
+    }
+
+    /**
+     * Puts more days through a {@link ForecastPipe} than it has room for, taking each one before
+     * putting the next, so that the pipe has to wrap around. Every day should come out once, in
+     * order, with every column intact.
+     */
+    @Test
+    public void testPipeHandsOverEveryDayInOrder() throws Exception {
+        ForecastBatch syncBatch = ForecastBatch.fromContentValues(createSyncTestWeatherValues());
+        ForecastPipe pipe = new ForecastPipe(2);
+        ForecastBatch taken = new ForecastBatch();
+
+        for (int i = 0; i < syncBatch.size(); i++) {
+            pipe.put(syncBatch, i);
+            assertTrue("The day just put should be there to take", pipe.take(taken));
+        }
+        pipe.finish();
+        assertFalse("A finished pipe should have nothing left", pipe.take(taken));
+
+        assertEquals(syncBatch.size(), taken.size());
+        for (int i = 0; i < syncBatch.size(); i++) {
+            assertEquals(syncBatch.getDate(i), taken.getDate(i));
+            assertEquals(syncBatch.getWeatherId(i), taken.getWeatherId(i));
+            assertEquals(syncBatch.getMinTemp(i), taken.getMinTemp(i), 0);
+            assertEquals(syncBatch.getMaxTemp(i), taken.getMaxTemp(i), 0);
+            assertEquals(syncBatch.getHumidity(i), taken.getHumidity(i), 0);
+            assertEquals(syncBatch.getPressure(i), taken.getPressure(i), 0);
+            assertEquals(syncBatch.getWindSpeed(i), taken.getWindSpeed(i), 0);
+            assertEquals(syncBatch.getDegrees(i), taken.getDegrees(i), 0);
+        }
+    }
+
+    /**
+     * Syncs a tracked location next to the user's own. Each location's sync should only compare
+     * against and write its own rows, and each location's URI should only return its own
+     * weather.
+     */
+    @Test
+    public void testSyncIsScopedToItsLocation() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        String locationKey = "Paris,FR";
+        ContentValues[] syncValues = createSyncTestWeatherValues();
+
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_SYNC_URI, syncValues);
+        int trackedSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.buildSyncUriForLocation(locationKey),
+                syncValues);
+        assertEquals("The tracked location's first sync should insert every row",
+                syncValues.length, trackedSyncCount);
+
+        /* The same forecast again changes nothing for the user's own location */
+        assertEquals("Syncing one location should not have changed the other",
+                0, contentResolver.bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI, syncValues));
+
+        Cursor trackedCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationKey),
+                null, null, null, null);
+        assertNotNull("Cursor was null.", trackedCursor);
+        assertEquals("The tracked location should only hold its own weather",
+                syncValues.length, trackedCursor.getCount());
+        trackedCursor.close();
+
+        int deleteCount = contentResolver.delete(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationKey), null, null);
+        assertEquals("Deleting a location should only delete its own weather",
+                syncValues.length, deleteCount);
+
+        Cursor primaryCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("Cursor was null.", primaryCursor);
+        assertEquals("The user's own location should keep its weather",
+                syncValues.length, primaryCursor.getCount());
+        primaryCursor.close();
+    }
+
+    /**
+     * Writes the user's own location and a tracked one. Every write to the user's own location
+     * should empty the snapshot cache, so it never holds weather older than the database, while
+     * writes to a tracked location should leave it alone.
+     */
+    @Test
+    public void testPrimaryWritesInvalidateSnapshotCache() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] syncValues = createSyncTestWeatherValues();
+        ForecastSnapshot cached = ForecastSnapshot.fromContentValues(syncValues);
+
+        ForecastSnapshotCache.set(cached, ForecastSnapshotCache.getGeneration());
+        contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.buildSyncUriForLocation("Paris,FR"), syncValues);
+        assertSame("A tracked location's sync should not touch the cache",
+                cached, ForecastSnapshotCache.get());
+
+        long generation = ForecastSnapshotCache.getGeneration();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_SYNC_URI, syncValues);
+        assertNull("A sync of the user's own location should empty the cache",
+                ForecastSnapshotCache.get());
+        assertFalse("A snapshot read before the sync should not be cached",
+                ForecastSnapshotCache.set(cached, generation));
+
+        ForecastSnapshotCache.set(cached, ForecastSnapshotCache.getGeneration());
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42.5);
+        contentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI, updatedValues, null, null);
+        assertNull("An update should empty the cache", ForecastSnapshotCache.get());
+
+        ForecastSnapshotCache.set(cached, ForecastSnapshotCache.getGeneration());
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        assertNull("A delete should empty the cache", ForecastSnapshotCache.get());
+    }
+
+    /**
+     * Inserts a single day, updates it through its own URI and deletes it again, checking the
+     * table after every step.
+     */
+    @Test
+    public void testInsertUpdateAndDeleteSingleDay() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        long weatherDate = testWeatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        Uri insertedUri = contentResolver.insert(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                testWeatherValues);
+        assertEquals("insert should return the URI of the inserted day",
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate), insertedUri);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42.5);
+        int updateCount = contentResolver.update(insertedUri, updatedValues, null, null);
+        assertEquals("update should only change the day in the URI", 1, updateCount);
+
+        testWeatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42.5);
+        Cursor cursor = contentResolver.query(insertedUri, null, null, null, null);
+        TestUtilities.validateThenCloseCursor(
+                "testInsertUpdateAndDeleteSingleDay. Error validating updated day",
+                cursor,
+                testWeatherValues);
+
+        int deleteCount = contentResolver.delete(insertedUri, null, null);
+        assertEquals("delete should only remove the day in the URI", 1, deleteCount);
+    }
+
+    /**
+     * Applies a batch whose last operation fails. None of the batch's operations should be
+     * applied, since they all share one transaction.
+     */
+    @Test
+    public void testApplyBatchIsAtomic() throws Exception {
+        ContentValues[] bulkValues = createBulkInsertTestWeatherValues();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : bulkValues) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        /* There is only one row for this date, so expecting two makes the batch fail */
+        long firstDate = bulkValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildWeatherUriWithDate(firstDate))
+                .withExpectedCount(2)
+                .build());
+
+        try {
+            mContext.getContentResolver()
+                    .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("applyBatch should have failed on the expected count");
+        } catch (OperationApplicationException e) {
+            /* Expected */
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("A failed batch should not leave any of its rows behind",
+                0, cursor.getCount());
+        cursor.close();
+
+        /* Without the failing operation, the whole batch goes through */
+        operations.remove(operations.size() - 1);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("Every insert of the batch should have been applied",
+                bulkValues.length, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * Creates a forecast starting today, since an incremental sync prunes days in the past.
+     */
+    private static ContentValues[] createSyncTestWeatherValues() {
+        ContentValues[] syncValues = createBulkInsertTestWeatherValues();
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < syncValues.length; i++) {
+            syncValues[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + SunshineDateUtils.DAY_IN_MILLIS * i);
+        }
+        return syncValues;
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
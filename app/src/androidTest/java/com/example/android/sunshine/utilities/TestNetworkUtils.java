@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the conditional requests made by {@link NetworkUtils} against a tiny HTTP server running
+ * on the device, which stands in for the weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final String ETAG = "\"forecast-v1\"";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandInServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        WeatherResponseCache.clear(mContext);
+        mServer = new StandInServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        WeatherResponseCache.clear(mContext);
+    }
+
+    @Test
+    public void testSecondRequestIsConditionalAndShortCircuitsOn304() throws IOException {
+        URL url = mServer.getUrl();
+
+        ForecastBatch forecastBatch = fetchAndStoreValidators(url);
+        assertNotNull("First request should return the forecast", forecastBatch);
+        assertNull("First request should not be conditional", mServer.mLastIfNoneMatch);
+
+        try {
+            fetchAndStoreValidators(url);
+            fail("Second request should have been answered with 304 Not Modified");
+        } catch (NotModifiedException expected) {
+            /* This is what we want */
+        }
+
+        assertEquals("Second request should send the ETag of the first response",
+                ETAG, mServer.mLastIfNoneMatch);
+        assertEquals(2, mServer.mRequestCount);
+    }
+
+    @Test
+    public void testFreshResponseSkipsTheNetwork() throws IOException {
+        mServer.mCacheControl = "max-age=600";
+        URL url = mServer.getUrl();
+
+        fetchAndStoreValidators(url);
+
+        try {
+            fetchAndStoreValidators(url);
+            fail("A response within its max-age should not be requested again");
+        } catch (NotModifiedException expected) {
+            /* This is what we want */
+        }
+
+        assertEquals("Only the first request should have reached the server",
+                1, mServer.mRequestCount);
+    }
+
+    @Test
+    public void testClearingTheCacheMakesRequestsUnconditional() throws IOException {
+        URL url = mServer.getUrl();
+
+        fetchAndStoreValidators(url);
+        WeatherResponseCache.clear(mContext);
+
+        ForecastBatch forecastBatch = fetchAndStoreValidators(url);
+        assertNotNull("Request after clearing the cache should return the forecast", forecastBatch);
+        assertNull("Request after clearing the cache should not be conditional",
+                mServer.mLastIfNoneMatch);
+    }
+
+    @Test
+    public void testValidatorsAreOnlyRememberedOnceStored() throws IOException {
+        URL url = mServer.getUrl();
+
+        /* Like a sync whose write failed: the response was parsed, but never stored */
+        WeatherResponseCache.Validators validators = new WeatherResponseCache.Validators();
+        NetworkUtils.getForecastBatchFromHttpUrl(mContext, url, null, null, validators);
+
+        ForecastBatch forecastBatch = NetworkUtils.getForecastBatchFromHttpUrl(mContext, url);
+        assertNotNull("Weather that was never stored should be fetched again", forecastBatch);
+        assertNull("Validators that were never stored should not be sent",
+                mServer.mLastIfNoneMatch);
+
+        WeatherResponseCache.store(mContext, validators);
+        try {
+            NetworkUtils.getForecastBatchFromHttpUrl(mContext, url);
+            fail("Once stored, the validators should make the request conditional");
+        } catch (NotModifiedException expected) {
+            /* This is what we want */
+        }
+    }
+
+    @Test
+    public void testTrackedLocationKeepsItsOwnValidators() throws IOException {
+        URL url = mServer.getUrl();
+
+        /* The user's own location has stored the forecast for this URL */
+        fetchAndStoreValidators(url);
+
+        /* A tracked location asking for the same URL has stored nothing yet */
+        WeatherResponseCache.Validators validators = new WeatherResponseCache.Validators();
+        ForecastBatch forecastBatch = NetworkUtils.getForecastBatchForTrackedLocation(
+                mContext, "Mountain View, CA 94043", url, null, validators);
+        assertNotNull("The tracked location should get the full forecast", forecastBatch);
+        assertNull("The user's own validators should not be sent for a tracked location",
+                mServer.mLastIfNoneMatch);
+
+        /* Nor should the tracked location's validators be sent for the user's own location */
+        WeatherResponseCache.store(mContext, validators);
+        WeatherResponseCache.remove(mContext, WeatherEntry.PRIMARY_LOCATION_KEY, url);
+        assertNotNull("The user's own location should get the full forecast",
+                NetworkUtils.getForecastBatchFromHttpUrl(mContext, url));
+        assertNull("A tracked location's validators should not be sent for the user's own",
+                mServer.mLastIfNoneMatch);
+    }
+
+    @Test
+    public void testCancelledRequestNeverReachesTheServer() throws IOException {
+        URL url = mServer.getUrl();
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+
+        try {
+            NetworkUtils.getForecastBatchFromHttpUrl(
+                    mContext, url, cancellationSignal, null, null);
+            fail("A cancelled request should not return a forecast");
+        } catch (OperationCanceledException expected) {
+            /* This is what we want */
+        }
+
+        assertEquals("A cancelled request should not reach the server",
+                0, mServer.mRequestCount);
+    }
+
+    /*
+     * Fetches the forecast and stores its validators right away, like a sync whose write
+     * succeeded.
+     */
+    private ForecastBatch fetchAndStoreValidators(URL url) throws IOException {
+        WeatherResponseCache.Validators validators = new WeatherResponseCache.Validators();
+        ForecastBatch forecastBatch =
+                NetworkUtils.getForecastBatchFromHttpUrl(mContext, url, null, null, validators);
+        WeatherResponseCache.store(mContext, validators);
+        return forecastBatch;
+    }
+
+    /**
+     * Serves {@link TestOpenWeatherJsonUtils#FORECAST_JSON} with an ETag, and answers 304 to any
+     * request that already has that ETag.
+     */
+    private static class StandInServer extends Thread {
+
+        private final ServerSocket mServerSocket;
+
+        volatile String mCacheControl;
+        volatile String mLastIfNoneMatch;
+        volatile int mRequestCount;
+
+        StandInServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/weather");
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                Socket socket = null;
+                try {
+                    socket = mServerSocket.accept();
+                    handle(socket);
+                } catch (IOException e) {
+                    /* The server socket was closed by shutdown */
+                } finally {
+                    if (socket != null) {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            }
+        }
+
+        private void handle(Socket socket) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+
+            String ifNoneMatch = null;
+            String line = reader.readLine();
+            while (line != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+                line = reader.readLine();
+            }
+
+            mLastIfNoneMatch = ifNoneMatch;
+            mRequestCount++;
+
+            StringBuilder response = new StringBuilder();
+            byte[] body;
+            if (ETAG.equals(ifNoneMatch)) {
+                response.append("HTTP/1.1 304 Not Modified\r\n");
+                body = new byte[0];
+            } else {
+                response.append("HTTP/1.1 200 OK\r\n");
+                response.append("Content-Type: application/json\r\n");
+                body = TestOpenWeatherJsonUtils.FORECAST_JSON.getBytes("UTF-8");
+            }
+            response.append("ETag: ").append(ETAG).append("\r\n");
+            if (mCacheControl != null) {
+                response.append("Cache-Control: ").append(mCacheControl).append("\r\n");
+            }
+            response.append("Content-Length: ").append(body.length).append("\r\n");
+            response.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(response.toString().getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Verifies that the streaming forecast parser produces exactly the same weather values as the
+ * original JSONObject based parser.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /*
+     * A trimmed down response from the weather server. It deliberately contains fields we don't
+     * care about, a "weather" array with more than one element and a quoted message code, so
+     * that the streaming parser has to skip over values the same way the JSONObject parser
+     * ignores them.
+     */
+    static final String FORECAST_JSON = "{"
+            + "\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},\"country\":\"US\"},"
+            + "\"cod\":\"200\",\"message\":0.0132,\"cnt\":3,"
+            + "\"list\":["
+            + "{\"dt\":1475352000,\"temp\":{\"day\":20.5,\"min\":12.25,\"max\":22.75,"
+            + "\"night\":12.3,\"eve\":18.1,\"morn\":13.4},\"pressure\":1017.82,\"humidity\":62,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\","
+            + "\"icon\":\"01d\"},{\"id\":500,\"main\":\"Rain\"}],"
+            + "\"speed\":1.71,\"deg\":310,\"clouds\":0},"
+            + "{\"dt\":1475438400,\"temp\":{\"day\":19.1,\"min\":11.0,\"max\":21.5,"
+            + "\"night\":11.6,\"eve\":17.2,\"morn\":11.0},\"pressure\":1018.4,\"humidity\":71,"
+            + "\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\","
+            + "\"icon\":\"10d\"}],\"speed\":3.26,\"deg\":275.5,\"clouds\":44,\"rain\":3.5},"
+            + "{\"dt\":1475524800,\"temp\":{\"day\":17.0,\"min\":-2.5,\"max\":18.0,"
+            + "\"night\":9.9,\"eve\":15.3,\"morn\":9.0},\"pressure\":1011.0,\"humidity\":88,"
+            + "\"weather\":[{\"id\":211,\"main\":\"Thunderstorm\"}],"
+            + "\"speed\":12.4,\"deg\":0,\"clouds\":92}"
+            + "]}";
+
+    static final String ERROR_JSON = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    @Test
+    public void testStreamingParserMatchesJsonObjectParser() throws JSONException, IOException {
+        ContentValues[] expectedValues = OpenWeatherJsonUtils
+                .getWeatherContentValuesFromJson(mContext, FORECAST_JSON);
+
+        ForecastBatch forecastBatch = OpenWeatherJsonUtils
+                .getForecastBatchFromJson(mContext, toStream(FORECAST_JSON));
+
+        assertNotNull("Streaming parser returned null for a valid response", forecastBatch);
+        assertEquals("Streaming parser returned a different number of days",
+                expectedValues.length, forecastBatch.size());
+
+        for (int i = 0; i < expectedValues.length; i++) {
+            ContentValues expected = expectedValues[i];
+            String error = "Mismatch for day " + i + " in column ";
+
+            assertEquals(error + WeatherEntry.COLUMN_DATE,
+                    (long) expected.getAsLong(WeatherEntry.COLUMN_DATE),
+                    forecastBatch.getDate(i));
+            assertEquals(error + WeatherEntry.COLUMN_WEATHER_ID,
+                    (int) expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    forecastBatch.getWeatherId(i));
+            assertEquals(error + WeatherEntry.COLUMN_MIN_TEMP,
+                    expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    forecastBatch.getMinTemp(i), 0);
+            assertEquals(error + WeatherEntry.COLUMN_MAX_TEMP,
+                    expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    forecastBatch.getMaxTemp(i), 0);
+            assertEquals(error + WeatherEntry.COLUMN_HUMIDITY,
+                    expected.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    forecastBatch.getHumidity(i), 0);
+            assertEquals(error + WeatherEntry.COLUMN_PRESSURE,
+                    expected.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    forecastBatch.getPressure(i), 0);
+            assertEquals(error + WeatherEntry.COLUMN_WIND_SPEED,
+                    expected.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    forecastBatch.getWindSpeed(i), 0);
+            assertEquals(error + WeatherEntry.COLUMN_DEGREES,
+                    expected.getAsDouble(WeatherEntry.COLUMN_DEGREES),
+                    forecastBatch.getDegrees(i), 0);
+        }
+    }
+
+    /**
+     * A day that lacks any of the values we store must fail the whole response in both parsers,
+     * rather than being stored with a 0 in place of the missing value.
+     */
+    @Test
+    public void testBothParsersRejectTruncatedDay() throws IOException {
+        String[] truncatedDays = {
+                /* No "max" in "temp" */
+                "{\"temp\":{\"min\":11.0},\"pressure\":1018.4,\"humidity\":71,"
+                        + "\"weather\":[{\"id\":501}],\"speed\":3.26,\"deg\":275.5}",
+                /* No "pressure" */
+                "{\"temp\":{\"min\":11.0,\"max\":21.5},\"humidity\":71,"
+                        + "\"weather\":[{\"id\":501}],\"speed\":3.26,\"deg\":275.5}",
+                /* A "weather" element without an "id" */
+                "{\"temp\":{\"min\":11.0,\"max\":21.5},\"pressure\":1018.4,\"humidity\":71,"
+                        + "\"weather\":[{\"main\":\"Rain\"}],\"speed\":3.26,\"deg\":275.5}",
+        };
+
+        for (String truncatedDay : truncatedDays) {
+            /* The complete days of FORECAST_JSON, followed by the truncated one */
+            String truncatedJson = FORECAST_JSON.substring(0, FORECAST_JSON.length() - 2)
+                    + "," + truncatedDay + "]}";
+
+            try {
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, truncatedJson);
+                fail("JSONObject parser should reject " + truncatedDay);
+            } catch (JSONException expected) {
+                /* This is what we want */
+            }
+
+            try {
+                OpenWeatherJsonUtils.getForecastBatchFromJson(mContext, toStream(truncatedJson));
+                fail("Streaming parser should reject " + truncatedDay);
+            } catch (IOException expected) {
+                /* This is what we want */
+            }
+        }
+    }
+
+    @Test
+    public void testBothParsersReturnNullOnErrorCode() throws JSONException, IOException {
+        assertNull("JSONObject parser should return null for an error response",
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, ERROR_JSON));
+        assertNull("Streaming parser should return null for an error response",
+                OpenWeatherJsonUtils.getForecastBatchFromJson(mContext, toStream(ERROR_JSON)));
+    }
+
+    static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+}
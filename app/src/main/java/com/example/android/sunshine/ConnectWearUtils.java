@@ -1,115 +1,163 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
+
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 
 import timber.log.Timber;
 
-public class ConnectWearUtils implements
-        GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener {
+/**
+ * Builds the data item that carries the weather to the watch face and hands it to the
+ * {@link WearChannel}, which owns the connection to the data layer.
+ * <p>
+ * Besides today's formatted temperatures, the data item holds the whole forecast, encoded by
+ * {@link WearForecastPayload}. The user's choice of units travels in a data item of its own
+ * under {@link #UNITS_PATH}, so that changing it doesn't require another sync.
+ * <p>
+ * The weather icon travels separately, in a data item of its own under
+ * {@link #WEATHER_ICON_PATH_PREFIX} followed by the icon's key. Each icon is put into the data
+ * layer only once; the data layer keeps it on the watch from then on, so the weather data item
+ * only needs to name the icon by its key.
+ */
+public class ConnectWearUtils {
 
     private static final String HIGH_TEMPERATURE_KEY = "high_temp";
     private static final String LOW_TEMPERATURE_KEY = "low_temp";
+    private static final String WEATHER_ICON_KEY_KEY = "icon_key";
     private static final String WEATHER_IMAGE_KEY = "img_weather";
     private static final String PASS_WEATHER_DATA_PATH = "/pass_weather_data";
+    private static final String FORECAST_KEY = "forecast";
+    private static final String WEATHER_ICON_PATH_PREFIX = "/weather_icon/";
+    private static final String METRIC_KEY = "metric";
+    private static final String UNITS_PATH = "/units";
+    private static final String REQUESTED_AT_KEY = "requested_at";
+
+    /* Width and height of the icon on the watch face, in pixels */
+    private static final int WEATHER_ICON_SIZE_PX = 50;
+
+    /**
+     * Sends today's weather and the whole forecast to the watch face, unless the watch face
+     * already shows exactly this. See {@link WearPushPolicy} for when the update is urgent.
+     * <p>
+     * A watch face that asked for the weather gets it urgently in any case. If the phone sent
+     * this weather before, the data item is stamped with the time, since the data layer would
+     * otherwise see no change and deliver nothing.
+     *
+     * @param context          Used to format the temperatures and to reach the
+     *                         {@link WearChannel}
+     * @param weatherId        Today's weather condition
+     * @param high             Today's high, in Celsius
+     * @param low              Today's low, in Celsius
+     * @param forecast         Every day of the forecast
+     * @param requestedByWatch Whether the watch face asked for the weather
+     */
+    public static void sendWeatherToWear(final Context context, final int weatherId,
+                                         final double high, final double low,
+                                         ForecastSnapshot forecast, boolean requestedByWatch) {
+
+        int weatherIconResourceId =
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+        String iconKey = WearIconAssetCache.getIconKey(
+                context, weatherIconResourceId, WEATHER_ICON_SIZE_PX);
+        String highTemp = SunshineWeatherUtils.formatTemperature(context, high);
+        String lowTemp = SunshineWeatherUtils.formatTemperature(context, low);
+        byte[] forecastPayload = WearForecastPayload.encode(forecast);
+
+        final long contentHash =
+                WearPushPolicy.hashContent(iconKey, highTemp, lowTemp, forecastPayload);
+        int push = WearPushPolicy.decide(context, contentHash, weatherId, high, low);
+        boolean sentBefore = push == WearPushPolicy.PUSH_NONE;
+        if (requestedByWatch) {
+            push = WearPushPolicy.PUSH_URGENT;
+        } else if (sentBefore) {
+            Timber.d("ConnectWearUtils:sendWeatherToWear: the watch already shows this");
+            return;
+        }
 
-    private GoogleApiClient mGoogleApiClient;
-    private Context mContext;
-    private Bitmap mWeatherIconBitmap;
-    private String mHighTemp;
-    private String mLowTemp;
-
-    public ConnectWearUtils(Context context, Bitmap weatherIconBitmap, String highTemp, String lowTemp) {
-        mContext = context;
-//        mWeatherIconBitmap = weatherIconBitmap;
-        mWeatherIconBitmap = Bitmap.createScaledBitmap(weatherIconBitmap, 50, 50, false);
+        if (!WearIconAssetCache.isPublished(context, iconKey)) {
+            sendIconToWear(context, weatherIconResourceId, iconKey);
+        }
+        /* The units are part of the hash, through the formatted temperatures */
+        putUnits(context, SunshinePreferences.isMetric(context),
+                push == WearPushPolicy.PUSH_URGENT);
 
+        /* No timestamp unless asked, so the data layer can tell when nothing changed either */
+        PutDataMapRequest dataMapRequest = PutDataMapRequest.create(PASS_WEATHER_DATA_PATH);
 
+        dataMapRequest.getDataMap().putString(WEATHER_ICON_KEY_KEY, iconKey);
+        dataMapRequest.getDataMap().putString(HIGH_TEMPERATURE_KEY, highTemp);
+        dataMapRequest.getDataMap().putString(LOW_TEMPERATURE_KEY, lowTemp);
+        dataMapRequest.getDataMap().putByteArray(FORECAST_KEY, forecastPayload);
+        if (sentBefore) {
+            dataMapRequest.getDataMap().putLong(REQUESTED_AT_KEY, System.currentTimeMillis());
+        }
 
-        mHighTemp = highTemp;
-        mLowTemp = lowTemp;
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .build();
+        Timber.d("ConnectWearUtils:sendWeatherToWear: high, low, icon is %s, %s, %s, urgent %s",
+                highTemp, lowTemp, iconKey, push == WearPushPolicy.PUSH_URGENT);
+        PutDataRequest dataRequest = dataMapRequest.asPutDataRequest();
+        if (push == WearPushPolicy.PUSH_URGENT) {
+            dataRequest.setUrgent();
+        }
 
-        mGoogleApiClient.connect();
+        WearChannel.get(context).send(dataRequest, new WearChannel.OnPutListener() {
+            @Override
+            public void onPut(boolean success) {
+                if (success) {
+                    WearPushPolicy.setSent(context, contentHash, weatherId, high, low);
+                }
+            }
+        });
     }
 
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        Timber.d("ConnectWearUtils:onConnected: isConnected: %s Context is %s", mGoogleApiClient.isConnected(), mContext);
-        sendWeatherToWear();
+    /**
+     * Tells the watch face which units to show temperatures in. The data layer only syncs the
+     * data item if the units actually changed.
+     *
+     * @param context Used to reach the {@link WearChannel}
+     * @param metric  Whether the user prefers Celsius
+     */
+    public static void sendUnitsToWear(Context context, boolean metric) {
+        putUnits(context, metric, true);
     }
 
+    private static void putUnits(Context context, boolean metric, boolean urgent) {
+        PutDataMapRequest dataMapRequest = PutDataMapRequest.create(UNITS_PATH);
+        dataMapRequest.getDataMap().putBoolean(METRIC_KEY, metric);
 
-    private void sendWeatherToWear() {
-
-        Timber.d("ConnectWearUtils:sendWeatherToWear2: isConnected %s", mGoogleApiClient.isConnected());
-        Asset weatherIconAsset = bitmapToAsset(mWeatherIconBitmap);
+        Timber.d("ConnectWearUtils:putUnits: metric is %s", metric);
+        PutDataRequest dataRequest = dataMapRequest.asPutDataRequest();
+        if (urgent) {
+            dataRequest.setUrgent();
+        }
 
-        PutDataMapRequest dataMapRequest = PutDataMapRequest.create(PASS_WEATHER_DATA_PATH);
+        WearChannel.get(context).send(dataRequest);
+    }
 
-        dataMapRequest.getDataMap().putAsset(WEATHER_IMAGE_KEY, weatherIconAsset);
-        dataMapRequest.getDataMap().putString(HIGH_TEMPERATURE_KEY, mHighTemp);
-        dataMapRequest.getDataMap().putString(LOW_TEMPERATURE_KEY, mLowTemp);
-        dataMapRequest.getDataMap().putLong("time", System.currentTimeMillis());
+    private static void sendIconToWear(final Context context, int weatherIconResourceId,
+                                       final String iconKey) {
+        byte[] encodedIcon = WearIconAssetCache.getEncodedIcon(
+                context, weatherIconResourceId, WEATHER_ICON_SIZE_PX);
 
-        Timber.d("ConnectWearUtils:sendWeatherToWear: high, low, asset is %s, %s", mHighTemp, mLowTemp);
-        PutDataRequest dataRequest = dataMapRequest.asPutDataRequest();
-        dataRequest.setUrgent();
+        PutDataMapRequest dataMapRequest =
+                PutDataMapRequest.create(WEATHER_ICON_PATH_PREFIX + iconKey);
+        dataMapRequest.getDataMap().putAsset(WEATHER_IMAGE_KEY,
+                Asset.createFromBytes(encodedIcon));
 
-        Wearable.DataApi.putDataItem(mGoogleApiClient, dataRequest)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+        Timber.d("ConnectWearUtils:sendIconToWear: %s, %d bytes", iconKey, encodedIcon.length);
+        /* Not urgent; the watch face keeps showing its last icon until this one arrives */
+        WearChannel.get(context).send(dataMapRequest.asPutDataRequest(),
+                new WearChannel.OnPutListener() {
                     @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        Timber.d("ConnectWearUtils:onResult: Sending image was successful: %s",
-                                dataItemResult.getStatus().isSuccess());
+                    public void onPut(boolean success) {
+                        if (success) {
+                            WearIconAssetCache.setPublished(context, iconKey);
+                        }
                     }
                 });
     }
-
-    private Asset bitmapToAsset(Bitmap bitmap) {
-        ByteArrayOutputStream byteStream = null;
-        try {
-            byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
-        } finally {
-            if (null != byteStream) {
-                try {
-                    byteStream.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
-        }
-    }
-
-
-    @Override
-    public void onConnectionSuspended(int i) {
-        Timber.d("ConnectWearUtils:onConnectionSuspended: ");
-    }
-
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-        Timber.d("ConnectWearUtils:onConnectionFailed: ");
-    }
 }
@@ -29,6 +29,8 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastSnapshotCache;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.databinding.ActivityDetailBinding;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
@@ -107,6 +109,26 @@ public class DetailActivity extends AppCompatActivity implements
         mUri = getIntent().getData();
         if (mUri == null) throw new NullPointerException("URI for DetailActivity cannot be null");
 
+        /*
+         * If this day is in the cached forecast, show it right away rather than waiting for the
+         * loader. The loader still runs, so that a sync finishing while we're on screen updates
+         * what we show.
+         */
+        ForecastSnapshot cachedForecast = ForecastSnapshotCache.get();
+        if (cachedForecast != null) {
+            int index = cachedForecast.indexOfDate(Long.parseLong(mUri.getLastPathSegment()));
+            if (index != -1) {
+                bindWeather(cachedForecast.getDate(index),
+                        cachedForecast.getWeatherId(index),
+                        cachedForecast.getMaxTemp(index),
+                        cachedForecast.getMinTemp(index),
+                        (float) cachedForecast.getHumidity(index),
+                        (float) cachedForecast.getWindSpeed(index),
+                        (float) cachedForecast.getDegrees(index),
+                        (float) cachedForecast.getPressure(index));
+            }
+        }
+
         /* This connects our Activity into the loader lifecycle. */
         getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
     }
@@ -238,11 +260,37 @@ public class DetailActivity extends AppCompatActivity implements
             return;
         }
 
+        bindWeather(data.getLong(INDEX_WEATHER_DATE),
+                data.getInt(INDEX_WEATHER_CONDITION_ID),
+                data.getDouble(INDEX_WEATHER_MAX_TEMP),
+                data.getDouble(INDEX_WEATHER_MIN_TEMP),
+                data.getFloat(INDEX_WEATHER_HUMIDITY),
+                data.getFloat(INDEX_WEATHER_WIND_SPEED),
+                data.getFloat(INDEX_WEATHER_DEGREES),
+                data.getFloat(INDEX_WEATHER_PRESSURE));
+    }
+
+    /**
+     * Binds a day of weather to our views so the user can see its details. This is called with
+     * the cached forecast as soon as the Activity is created, and again with the result of every
+     * load.
+     *
+     * @param localDateMidnightGmt Normalized UTC date of the weather
+     * @param weatherId            Weather condition ID (ID provided by Open Weather Map)
+     * @param highInCelsius        High temperature in degrees celsius
+     * @param lowInCelsius         Low temperature in degrees celsius
+     * @param humidity             Humidity in percent
+     * @param windSpeed            Wind speed (in MPH)
+     * @param windDirection        Wind direction (in compass degrees)
+     * @param pressure             Pressure in hPa
+     */
+    private void bindWeather(long localDateMidnightGmt, int weatherId,
+                             double highInCelsius, double lowInCelsius, float humidity,
+                             float windSpeed, float windDirection, float pressure) {
+
         /****************
          * Weather Icon *
          ****************/
-        /* Read weather condition ID from the cursor (ID provided by Open Weather Map) */
-        int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
         /* Use our utility method to determine the resource ID for the proper art */
         int weatherImageId = SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
 
@@ -253,15 +301,14 @@ public class DetailActivity extends AppCompatActivity implements
          * Weather Date *
          ****************/
         /*
-         * Read the date from the cursor. It is important to note that the date from the cursor
-         * is the same date from the weather SQL table. The date that is stored is a GMT
-         * representation at midnight of the date when the weather information was loaded for.
+         * It is important to note that the date is the same date from the weather SQL table.
+         * The date that is stored is a GMT representation at midnight of the date when the
+         * weather information was loaded for.
          *
          * When displaying this date, one must add the GMT offset (in milliseconds) to acquire
          * the date representation for the local date in local time.
          * SunshineDateUtils#getFriendlyDateString takes care of this for us.
          */
-        long localDateMidnightGmt = data.getLong(INDEX_WEATHER_DATE);
         String dateText = SunshineDateUtils.getFriendlyDateString(this, localDateMidnightGmt, true);
 
         mDetailBinding.primaryInfo.date.setText(dateText);
@@ -285,8 +332,6 @@ public class DetailActivity extends AppCompatActivity implements
         /**************************
          * High (max) temperature *
          **************************/
-        /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = data.getDouble(INDEX_WEATHER_MAX_TEMP);
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -304,8 +349,6 @@ public class DetailActivity extends AppCompatActivity implements
         /*************************
          * Low (min) temperature *
          *************************/
-        /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = data.getDouble(INDEX_WEATHER_MIN_TEMP);
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -322,8 +365,6 @@ public class DetailActivity extends AppCompatActivity implements
         /************
          * Humidity *
          ************/
-        /* Read humidity from the cursor */
-        float humidity = data.getFloat(INDEX_WEATHER_HUMIDITY);
         String humidityString = getString(R.string.format_humidity, humidity);
 
         String humidityA11y = getString(R.string.a11y_humidity, humidityString);
@@ -337,9 +378,6 @@ public class DetailActivity extends AppCompatActivity implements
         /****************************
          * Wind speed and direction *
          ****************************/
-        /* Read wind speed (in MPH) and direction (in compass degrees) from the cursor  */
-        float windSpeed = data.getFloat(INDEX_WEATHER_WIND_SPEED);
-        float windDirection = data.getFloat(INDEX_WEATHER_DEGREES);
         String windString = SunshineWeatherUtils.getFormattedWind(this, windSpeed, windDirection);
 
         String windA11y = getString(R.string.a11y_wind, windString);
@@ -353,9 +391,6 @@ public class DetailActivity extends AppCompatActivity implements
         /************
          * Pressure *
          ************/
-        /* Read pressure from the cursor */
-        float pressure = data.getFloat(INDEX_WEATHER_PRESSURE);
-
         /*
          * Format the pressure text using string resources. The reason we directly access
          * resources using getString rather than using a method from SunshineWeatherUtils as
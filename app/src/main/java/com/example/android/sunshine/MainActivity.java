@@ -32,9 +32,12 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastSnapshotCache;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
@@ -146,6 +149,21 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
+        /*
+         * If a sync or an earlier screen already brought the forecast into this process, show it
+         * right away. The loader below still runs, both to pick up anything newer and to keep
+         * watching the ContentProvider for changes.
+         */
+        ForecastSnapshot cachedForecast = ForecastSnapshotCache.get();
+        if (cachedForecast != null) {
+            ForecastSnapshot upcomingForecast = cachedForecast
+                    .startingFrom(SunshineDateUtils.getNormalizedUtcDateForToday());
+            if (!upcomingForecast.isEmpty()) {
+                mForecastAdapter.swapForecast(upcomingForecast);
+                showWeatherDataView();
+            }
+        }
+
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
@@ -237,7 +255,8 @@ public class MainActivity extends AppCompatActivity implements
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
 
-        mForecastAdapter.swapCursor(data);
+        /* The adapter reads from a snapshot, so it never has to move the loader's Cursor */
+        mForecastAdapter.swapForecast(ForecastSnapshot.fromCursor(data));
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
         mRecyclerView.smoothScrollToPosition(mPosition);
         if (data.getCount() != 0) showWeatherDataView();
@@ -255,7 +274,7 @@ public class MainActivity extends AppCompatActivity implements
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapForecast(null);
     }
 
     /**
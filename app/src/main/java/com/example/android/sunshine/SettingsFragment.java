@@ -16,6 +16,7 @@
 package com.example.android.sunshine;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.v7.preference.CheckBoxPreference;
@@ -24,15 +25,20 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
 import android.support.v7.preference.PreferenceScreen;
 
+import com.example.android.sunshine.data.ForecastSnapshotCache;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.utilities.WeatherResponseCache;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
  * user will be able to change their preference for units of measurement from metric to imperial,
- * set their preferred weather location, and indicate whether or not they'd like to see
- * notifications.
+ * set their preferred weather location, list other locations whose weather they'd like to keep,
+ * and indicate whether or not they'd like to see notifications.
  *
  * Please note: If you are using our dummy weather services, the location returned will always be
  * Mountain View, California.
@@ -57,6 +63,29 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         }
     }
 
+    /*
+     * Tracks every location in the text, one per line, and stops tracking the ones that are no
+     * longer in it. Locations that stay are left alone, so their weather isn't fetched again.
+     */
+    private static void updateTrackedLocations(Context context, String locationLines) {
+        Set<String> wantedLocations = new LinkedHashSet<>();
+        for (String line : locationLines.split("\n")) {
+            String locationQuery = line.trim();
+            if (!locationQuery.isEmpty()) {
+                wantedLocations.add(locationQuery);
+            }
+        }
+
+        for (String trackedLocation : SunshinePreferences.getTrackedLocations(context)) {
+            if (!wantedLocations.remove(trackedLocation)) {
+                SunshineSyncUtils.stopTrackingLocation(context, trackedLocation);
+            }
+        }
+        for (String newLocation : wantedLocations) {
+            SunshineSyncUtils.startTrackingLocation(context, newLocation);
+        }
+    }
+
     @Override
     public void onCreatePreferences(Bundle bundle, String s) {
         // Add 'general' preferences, defined in the XML file
@@ -98,10 +127,19 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
+            // Validators cached for the old location must not keep the new one from loading
+            WeatherResponseCache.clear(activity);
+            // Nor should the forecast we cached for it show up on screen
+            ForecastSnapshotCache.invalidate();
             SunshineSyncUtils.startImmediateSync(activity);
+        } else if (key.equals(getString(R.string.pref_tracked_locations_key))) {
+            // the user edited the other locations; start and stop tracking them to match
+            updateTrackedLocations(activity, sharedPreferences.getString(key, ""));
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the watch face has the whole forecast already, it only needs to hear the units
+            ConnectWearUtils.sendUnitsToWear(activity, SunshinePreferences.isMetric(activity));
         }
         Preference preference = findPreference(key);
         if (null != preference) {
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Owns the one GoogleApiClient the app uses to talk to the wearable data layer.
+ * <p>
+ * Connecting a GoogleApiClient takes a while, so instead of building a new client for every
+ * sync, the client is kept around for as long as somebody needs it. Anything that wants the
+ * connection kept open calls {@link #acquire()} and later {@link #release()}; every payload
+ * handed to {@link #send(PutDataRequest)} holds the connection until the data layer has
+ * accepted it. Once nobody holds the connection for {@link #IDLE_DISCONNECT_MILLIS}, the client
+ * disconnects, and it reconnects with the next acquire or send.
+ * <p>
+ * Payloads sent while the client is still connecting are queued and go out as soon as it is
+ * connected. Data items are keyed by path and only the latest one per path matters to the
+ * wearable, so a newer payload replaces a queued one for the same path.
+ */
+public class WearChannel implements
+        GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    /* How long the client stays connected after its last user let go of it */
+    static final long IDLE_DISCONNECT_MILLIS = 30 * 1000;
+
+    private static WearChannel sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /* Payloads waiting for the client to connect, by data item path */
+    private final Map<String, QueuedRequest> mQueuedRequests = new LinkedHashMap<>();
+
+    private int mRefCount;
+    private long mConnectStartedAt;
+
+    /* Metrics, see getMetrics() */
+    private int mConnectCount;
+    private long mLastConnectLatencyMillis;
+    private long mTotalConnectLatencyMillis;
+    private int mQueuedPayloadCount;
+    private int mReplacedPayloadCount;
+    private int mDroppedPayloadCount;
+
+    private final Runnable mDisconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            disconnectIfIdle();
+        }
+    };
+
+    /**
+     * Hears whether a payload handed to {@link #send(PutDataRequest, OnPutListener)} made it into
+     * the data layer. Called on the main thread.
+     */
+    public interface OnPutListener {
+        void onPut(boolean success);
+    }
+
+    private static class QueuedRequest {
+        final PutDataRequest request;
+        final OnPutListener listener;
+
+        QueuedRequest(PutDataRequest request, OnPutListener listener) {
+            this.request = request;
+            this.listener = listener;
+        }
+    }
+
+    private WearChannel(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * @param context Any context; the channel only keeps the application context
+     * @return The channel shared by the whole process
+     */
+    public static synchronized WearChannel get(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearChannel(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Keeps the connection open (connecting it if necessary) until the matching
+     * {@link #release()}.
+     */
+    public synchronized void acquire() {
+        mRefCount++;
+        mHandler.removeCallbacks(mDisconnectRunnable);
+        connectIfNeeded();
+    }
+
+    /**
+     * Lets go of the connection. Once nobody holds it any more, it is closed after
+     * {@link #IDLE_DISCONNECT_MILLIS}.
+     */
+    public synchronized void release() {
+        if (mRefCount == 0) {
+            throw new IllegalStateException("WearChannel released more often than acquired");
+        }
+        mRefCount--;
+        if (mRefCount == 0) {
+            mHandler.postDelayed(mDisconnectRunnable, IDLE_DISCONNECT_MILLIS);
+        }
+    }
+
+    /**
+     * Puts a data item into the data layer, now if the client is connected, otherwise as soon as
+     * it is.
+     *
+     * @param request The data item to put
+     */
+    public void send(PutDataRequest request) {
+        send(request, null);
+    }
+
+    /**
+     * Like {@link #send(PutDataRequest)}, but tells the listener whether the data layer accepted
+     * the data item. A payload that is replaced by a newer one for the same path, or dropped
+     * because the wearable API isn't available, counts as not accepted.
+     *
+     * @param request  The data item to put
+     * @param listener Told about the outcome, may be null
+     */
+    public synchronized void send(PutDataRequest request, @Nullable OnPutListener listener) {
+        if (mGoogleApiClient.isConnected()) {
+            putDataItem(request, listener);
+            return;
+        }
+
+        /* The queued request holds the connection until it has been put */
+        QueuedRequest replaced = mQueuedRequests.put(request.getUri().getPath(),
+                new QueuedRequest(request, listener));
+        if (replaced != null) {
+            mReplacedPayloadCount++;
+            notifyPut(replaced.listener, false);
+        } else {
+            acquire();
+        }
+        mQueuedPayloadCount++;
+        connectIfNeeded();
+    }
+
+    private void putDataItem(PutDataRequest request, @Nullable final OnPutListener listener) {
+        acquire();
+        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                        boolean success = dataItemResult.getStatus().isSuccess();
+                        Timber.d("WearChannel:onResult: Sending data item was successful: %s",
+                                success);
+                        notifyPut(listener, success);
+                        release();
+                    }
+                });
+    }
+
+    private void notifyPut(@Nullable final OnPutListener listener, final boolean success) {
+        if (listener == null) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onPut(success);
+            }
+        });
+    }
+
+    private void connectIfNeeded() {
+        if (!mGoogleApiClient.isConnected() && !mGoogleApiClient.isConnecting()) {
+            mConnectStartedAt = SystemClock.elapsedRealtime();
+            mGoogleApiClient.connect();
+        }
+    }
+
+    private synchronized void disconnectIfIdle() {
+        if (mRefCount == 0 && mGoogleApiClient.isConnected()) {
+            Timber.d("WearChannel:disconnectIfIdle: %s", getMetrics());
+            mGoogleApiClient.disconnect();
+        }
+    }
+
+    @Override
+    public synchronized void onConnected(@Nullable Bundle bundle) {
+        mConnectCount++;
+        mLastConnectLatencyMillis = SystemClock.elapsedRealtime() - mConnectStartedAt;
+        mTotalConnectLatencyMillis += mLastConnectLatencyMillis;
+        Timber.d("WearChannel:onConnected: in %d ms, %d queued payloads",
+                mLastConnectLatencyMillis, mQueuedRequests.size());
+
+        List<QueuedRequest> queuedRequests = new ArrayList<>(mQueuedRequests.values());
+        mQueuedRequests.clear();
+        for (QueuedRequest queued : queuedRequests) {
+            putDataItem(queued.request, queued.listener);
+            /* putDataItem holds the connection now, so the queue's hold can go */
+            release();
+        }
+
+        /* Nobody may be holding the connection, e.g. if every holder let go while connecting */
+        if (mRefCount == 0) {
+            mHandler.postDelayed(mDisconnectRunnable, IDLE_DISCONNECT_MILLIS);
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        /* GoogleApiClient reconnects by itself; queued payloads wait for onConnected */
+        Timber.d("WearChannel:onConnectionSuspended: %d", cause);
+    }
+
+    @Override
+    public synchronized void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        Timber.d("WearChannel:onConnectionFailed: %s, dropping %d queued payloads",
+                connectionResult, mQueuedRequests.size());
+
+        /* There is no wearable API to talk to, so there is no point in holding on to them */
+        List<QueuedRequest> droppedRequests = new ArrayList<>(mQueuedRequests.values());
+        mQueuedRequests.clear();
+        mDroppedPayloadCount += droppedRequests.size();
+        for (QueuedRequest dropped : droppedRequests) {
+            notifyPut(dropped.listener, false);
+            release();
+        }
+    }
+
+    /**
+     * @return A one line summary of how the channel has been doing, for the log
+     */
+    public synchronized String getMetrics() {
+        long averageConnectLatencyMillis =
+                mConnectCount == 0 ? 0 : mTotalConnectLatencyMillis / mConnectCount;
+        return "connects " + mConnectCount
+                + ", last connect " + mLastConnectLatencyMillis + " ms"
+                + ", average connect " + averageConnectLatencyMillis + " ms"
+                + ", queued payloads " + mQueuedPayloadCount
+                + " (replaced " + mReplacedPayloadCount
+                + ", dropped " + mDroppedPayloadCount + ")";
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.sunshine;
+
+import com.example.android.sunshine.data.ForecastSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the whole forecast into a few bytes for the watch face, so that it can move on to the
+ * next day at midnight, or show the temperatures in other units, without asking the phone.
+ * <p>
+ * The watch face module has the matching decoder, WearForecast. Any change to the layout below
+ * needs a new {@link #VERSION}, and the decoder ignores payloads with a version it doesn't know.
+ * <p>
+ * Layout of version 1. Every number is a varint, seven bits per byte with the lowest group
+ * first; signed numbers are zigzag encoded first, so that small negative numbers stay small.
+ * <pre>
+ *   byte   version
+ *   varint number of days
+ *   per day:
+ *     varint days since the previous day (for the first day, since the epoch)
+ *     varint weather condition id
+ *     signed high temperature in tenths of a degree Celsius, minus the previous day's high
+ *     varint high minus low, in tenths of a degree Celsius
+ * </pre>
+ * Days almost always follow each other and the high changes by a few degrees at most, so a day
+ * usually takes six or seven bytes.
+ */
+final class WearForecastPayload {
+
+    static final int VERSION = 1;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private WearForecastPayload() {
+    }
+
+    /**
+     * @param forecast The days to send, sorted by date. Dates must be normalized UTC dates.
+     * @return The encoded forecast
+     */
+    static byte[] encode(ForecastSnapshot forecast) {
+        /* Version and count, then at most 2 + 2 + 3 + 3 bytes per day */
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4 + forecast.size() * 10);
+        out.write(VERSION);
+        writeVarint(out, forecast.size());
+
+        long previousDay = 0;
+        int previousHigh = 0;
+        for (int i = 0; i < forecast.size(); i++) {
+            long day = forecast.getDate(i) / DAY_IN_MILLIS;
+            int high = toTenths(forecast.getMaxTemp(i));
+            int low = toTenths(forecast.getMinTemp(i));
+
+            writeVarint(out, day - previousDay);
+            writeVarint(out, forecast.getWeatherId(i));
+            writeVarint(out, zigzag(high - previousHigh));
+            /* The low can't be above the high, but don't trust the server on that */
+            writeVarint(out, Math.max(0, high - low));
+
+            previousDay = day;
+            previousHigh = high;
+        }
+        return out.toByteArray();
+    }
+
+    /* Columns the snapshot didn't have are NaN, and are sent as 0 */
+    private static int toTenths(double temperature) {
+        return Double.isNaN(temperature) ? 0 : (int) Math.round(temperature * 10);
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
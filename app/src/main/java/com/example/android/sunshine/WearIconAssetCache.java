@@ -0,0 +1,190 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Encodes the weather icons we send to the watch face, once per icon and size.
+ * <p>
+ * There are only a handful of small art resources, so there is no reason to decode, scale and
+ * PNG-compress one of them on every sync. The encoded PNG is kept in memory and in a file under
+ * the cache directory, so that it survives the process. Both are keyed by the resource's entry
+ * name and the size, which unlike the resource id stays the same from one build to the next.
+ * <p>
+ * The cache also remembers which icons the data layer has accepted, so that ConnectWearUtils only
+ * puts an icon's data item once and afterwards just refers to it by its key.
+ */
+final class WearIconAssetCache {
+
+    private static final String ICON_DIRECTORY = "wear_icons";
+
+    /* Kept apart from the default SharedPreferences, which hold the user's settings */
+    private static final String PREFS_NAME = "wear_icon_assets";
+    private static final String KEY_PUBLISHED_ICONS = "published_icons";
+
+    private static final Map<String, byte[]> sEncodedIcons = new HashMap<>();
+
+    private WearIconAssetCache() {
+    }
+
+    /**
+     * @param context        Used to look up the resource name
+     * @param iconResourceId Drawable resource of the icon
+     * @param sizePx         Width and height the icon is scaled to
+     * @return The key the icon is stored and sent under, e.g. "ic_clear_50"
+     */
+    static String getIconKey(Context context, int iconResourceId, int sizePx) {
+        return context.getResources().getResourceEntryName(iconResourceId) + "_" + sizePx;
+    }
+
+    /**
+     * Returns the icon as a PNG, scaled to sizePx by sizePx. The icon is only encoded if it is
+     * neither in memory nor on disk yet.
+     *
+     * @param context        Used to decode the resource and to find the cache directory
+     * @param iconResourceId Drawable resource of the icon
+     * @param sizePx         Width and height the icon is scaled to
+     * @return The encoded icon; callers must not modify it
+     */
+    static synchronized byte[] getEncodedIcon(Context context, int iconResourceId, int sizePx) {
+        String iconKey = getIconKey(context, iconResourceId, sizePx);
+
+        byte[] encodedIcon = sEncodedIcons.get(iconKey);
+        if (encodedIcon != null) {
+            return encodedIcon;
+        }
+
+        File iconFile = new File(getIconDirectory(context), iconKey + ".png");
+        encodedIcon = readFile(iconFile);
+        if (encodedIcon == null) {
+            encodedIcon = encodeIcon(context, iconResourceId, sizePx);
+            writeFile(iconFile, encodedIcon);
+            Timber.d("WearIconAssetCache:getEncodedIcon: encoded %s, %d bytes",
+                    iconKey, encodedIcon.length);
+        }
+
+        sEncodedIcons.put(iconKey, encodedIcon);
+        return encodedIcon;
+    }
+
+    /**
+     * @return true if the data layer has accepted the data item for this icon before
+     */
+    static boolean isPublished(Context context, String iconKey) {
+        return getPreferences(context)
+                .getStringSet(KEY_PUBLISHED_ICONS, new HashSet<String>())
+                .contains(iconKey);
+    }
+
+    /**
+     * Remembers that the data layer has accepted the data item for this icon. From then on the
+     * data layer keeps the icon in sync with the watch by itself.
+     */
+    static synchronized void setPublished(Context context, String iconKey) {
+        SharedPreferences sp = getPreferences(context);
+        /* The set returned by getStringSet must not be modified, so copy it */
+        Set<String> publishedIcons =
+                new HashSet<>(sp.getStringSet(KEY_PUBLISHED_ICONS, new HashSet<String>()));
+        if (publishedIcons.add(iconKey)) {
+            sp.edit().putStringSet(KEY_PUBLISHED_ICONS, publishedIcons).apply();
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static File getIconDirectory(Context context) {
+        File iconDirectory = new File(context.getCacheDir(), ICON_DIRECTORY);
+        if (!iconDirectory.isDirectory() && !iconDirectory.mkdirs()) {
+            Timber.w("WearIconAssetCache:getIconDirectory: couldn't create %s", iconDirectory);
+        }
+        return iconDirectory;
+    }
+
+    private static byte[] encodeIcon(Context context, int iconResourceId, int sizePx) {
+        Bitmap icon = BitmapFactory.decodeResource(context.getResources(), iconResourceId);
+        Bitmap scaledIcon = Bitmap.createScaledBitmap(icon, sizePx, sizePx, false);
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        scaledIcon.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+
+        if (scaledIcon != icon) {
+            scaledIcon.recycle();
+        }
+        icon.recycle();
+        return byteStream.toByteArray();
+    }
+
+    /* Returns null if the file doesn't exist or can't be read */
+    private static byte[] readFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            Timber.w(e, "WearIconAssetCache:readFile: %s", file);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /* Writes to a temporary file first, so that a crash never leaves half an icon behind */
+    private static void writeFile(File file, byte[] data) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                Timber.w("WearIconAssetCache:writeFile: couldn't rename %s", tempFile);
+            }
+        } catch (IOException e) {
+            /* Not fatal, the icon is simply encoded again after the next restart */
+            Timber.w(e, "WearIconAssetCache:writeFile: %s", file);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
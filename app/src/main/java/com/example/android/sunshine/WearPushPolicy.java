@@ -0,0 +1,97 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.zip.CRC32;
+
+/**
+ * Decides whether a weather update is worth sending to the watch face, and how urgently.
+ * <p>
+ * Most syncs bring the same weather the watch already shows. Sending it anyway wakes the radio
+ * on both ends, so an update is only sent if the hash of what the watch face shows (the icon,
+ * the temperatures and the forecast payload) differs from the last update the data layer
+ * accepted. Of those, only the ones the user would notice at a glance are sent urgently: a
+ * change of weather condition, or a high or low that moved by at least
+ * R.integer.wear_urgent_temperature_delta degrees. Everything else is left to the data layer to
+ * deliver whenever it next syncs.
+ */
+final class WearPushPolicy {
+
+    static final int PUSH_NONE = 0;
+    static final int PUSH_NORMAL = 1;
+    static final int PUSH_URGENT = 2;
+
+    /* Kept apart from the default SharedPreferences, which hold the user's settings */
+    private static final String PREFS_NAME = "wear_push_state";
+
+    private static final String KEY_CONTENT_HASH = "content_hash";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_HIGH = "high";
+    private static final String KEY_LOW = "low";
+
+    private WearPushPolicy() {
+    }
+
+    /**
+     * @param parts The strings and payloads the watch face shows, in a fixed order
+     * @return A hash of all of them together
+     */
+    static long hashContent(Object... parts) {
+        CRC32 crc = new CRC32();
+        for (Object part : parts) {
+            byte[] bytes = part instanceof byte[]
+                    ? (byte[]) part
+                    : String.valueOf(part).getBytes();
+            crc.update(bytes);
+            /* Keeps "ab" + "c" apart from "a" + "bc" */
+            crc.update(0);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param context     Used to read what was sent last and the urgency threshold
+     * @param contentHash Hash of the update, see {@link #hashContent(Object...)}
+     * @param weatherId   Today's weather condition
+     * @param high        Today's high, in Celsius
+     * @param low         Today's low, in Celsius
+     * @return {@link #PUSH_NONE}, {@link #PUSH_NORMAL} or {@link #PUSH_URGENT}
+     */
+    static int decide(Context context, long contentHash, int weatherId, double high, double low) {
+        SharedPreferences sp = getPreferences(context);
+        if (!sp.contains(KEY_CONTENT_HASH)) {
+            /* The watch face may have nothing at all to show yet */
+            return PUSH_URGENT;
+        }
+        if (sp.getLong(KEY_CONTENT_HASH, 0) == contentHash) {
+            return PUSH_NONE;
+        }
+
+        int urgentDelta = context.getResources()
+                .getInteger(R.integer.wear_urgent_temperature_delta);
+        boolean conditionChanged = sp.getInt(KEY_WEATHER_ID, 0) != weatherId;
+        boolean highChanged = Math.abs(sp.getFloat(KEY_HIGH, 0) - high) >= urgentDelta;
+        boolean lowChanged = Math.abs(sp.getFloat(KEY_LOW, 0) - low) >= urgentDelta;
+
+        return conditionChanged || highChanged || lowChanged ? PUSH_URGENT : PUSH_NORMAL;
+    }
+
+    /**
+     * Remembers an update the data layer has accepted, for {@link #decide}.
+     */
+    static void setSent(Context context, long contentHash, int weatherId,
+                        double high, double low) {
+        getPreferences(context).edit()
+                .putLong(KEY_CONTENT_HASH, contentHash)
+                .putInt(KEY_WEATHER_ID, weatherId)
+                .putFloat(KEY_HIGH, (float) high)
+                .putFloat(KEY_LOW, (float) low)
+                .apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
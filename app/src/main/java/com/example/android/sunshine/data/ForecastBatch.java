@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A batch of daily forecasts stored as one primitive array per column of the weather table.
+ * <p>
+ * Each day of the forecast lives at the same index in every array. Compared to an array of
+ * {@link ContentValues}, this avoids one HashMap and a boxed Long / Double per column for every
+ * day we parse, which keeps the sync from churning the garbage collector.
+ */
+public final class ForecastBatch {
+
+    /* OWM returns 14 days by default, which is what NetworkUtils asks for */
+    private static final int DEFAULT_CAPACITY = 14;
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a single day of weather to the end of this batch.
+     *
+     * @param date      Normalized UTC date in milliseconds
+     * @param weatherId Weather condition ID as returned by the API
+     * @param minTemp   Low temperature for the day in °C
+     * @param maxTemp   High temperature for the day in °C
+     * @param humidity  Humidity in percent
+     * @param pressure  Atmospheric pressure in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Meteorological wind direction
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        ensureCapacity(mSize + 1);
+
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+
+        mSize++;
+    }
+
+    /**
+     * Builds a batch from days handed to the ContentProvider as ContentValues. Every column of
+     * the weather table is NOT NULL, so a day that lacks any of them could never be stored and
+     * is left out.
+     *
+     * @param weatherValues One set of column_name/value pairs per day
+     * @return The complete days, in the order they were given
+     * @throws IllegalArgumentException If a day has no date
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] weatherValues) {
+        ForecastBatch forecastBatch = new ForecastBatch(weatherValues.length);
+        for (ContentValues value : weatherValues) {
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (date == null) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+            if (weatherId == null || minTemp == null || maxTemp == null || humidity == null
+                    || pressure == null || windSpeed == null || degrees == null) {
+                continue;
+            }
+
+            forecastBatch.add(date, weatherId, minTemp, maxTemp,
+                    humidity, pressure, windSpeed, degrees);
+        }
+        return forecastBatch;
+    }
+
+    /**
+     * Empties this batch while keeping its arrays, so that it can be filled again without
+     * allocating.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= mDates.length) return;
+
+        int newCapacity = Math.max(minCapacity, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, newCapacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, newCapacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, newCapacity);
+        mHumidities = Arrays.copyOf(mHumidities, newCapacity);
+        mPressures = Arrays.copyOf(mPressures, newCapacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, newCapacity);
+        mDegrees = Arrays.copyOf(mDegrees, newCapacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int index) {
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemps[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemps[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidities[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressures[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeeds[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /*
+     * Converts a single day of this batch into the ContentValues representation used by the
+     * ContentProvider.
+     */
+    private ContentValues toContentValues(int index) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[index]);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[index]);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[index]);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[index]);
+        return weatherValues;
+    }
+
+    /**
+     * Converts this batch into an array of ContentValues, for callers that have to go through
+     * a ContentResolver.
+     *
+     * @return One ContentValues per day in this batch
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            weatherContentValues[i] = toContentValues(i);
+        }
+        return weatherContentValues;
+    }
+}
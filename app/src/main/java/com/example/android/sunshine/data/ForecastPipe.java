@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Hands days of weather from the thread that parses the forecast to the thread that writes it
+ * to the database, one day at a time, so that the first days are written while the last ones are
+ * still coming in over the network.
+ * <p>
+ * The pipe holds at most a few days, in one primitive array per column like
+ * {@link ForecastBatch}, so handing a day over doesn't create any objects. A parser that gets
+ * ahead of the writer waits in {@link #put(ForecastBatch, int)} until there is room again, so
+ * memory stays bounded however slow the database is.
+ * <p>
+ * The parser ends the forecast with {@link #finish()}, or with {@link #fail(Exception)} if the
+ * response turned out to be unusable, in which case the writer throws from
+ * {@link #take(ForecastBatch)} and rolls back everything it wrote. A writer that gives up calls
+ * {@link #close()}, so that the parser doesn't wait for room that will never come.
+ */
+public final class ForecastPipe {
+
+    private final int mCapacity;
+
+    /* A ring of days, guarded by this. mHead is the next day to take. */
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+    private int mHead;
+    private int mCount;
+
+    /* Guarded by this */
+    private boolean mFinished;
+    private Exception mFailure;
+    private boolean mClosed;
+
+    /**
+     * @param capacity How many days the parser may get ahead of the writer
+     */
+    public ForecastPipe(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mDates = new long[mCapacity];
+        mWeatherIds = new int[mCapacity];
+        mMinTemps = new double[mCapacity];
+        mMaxTemps = new double[mCapacity];
+        mHumidities = new double[mCapacity];
+        mPressures = new double[mCapacity];
+        mWindSpeeds = new double[mCapacity];
+        mDegrees = new double[mCapacity];
+    }
+
+    /**
+     * @param days Every day of a forecast that has been parsed already
+     * @return A finished pipe holding all of the given days
+     */
+    public static ForecastPipe of(ForecastBatch days) {
+        ForecastPipe pipe = new ForecastPipe(days.size());
+        for (int i = 0; i < days.size(); i++) {
+            pipe.add(days, i);
+        }
+        pipe.mFinished = true;
+        return pipe;
+    }
+
+    /**
+     * Adds a day, waiting for room if the writer is behind.
+     *
+     * @param days  The batch the parser is filling
+     * @param index The day within it to add
+     * @throws IOException If the writer has stopped, or the thread was interrupted
+     */
+    public synchronized void put(ForecastBatch days, int index) throws IOException {
+        while (mCount >= mCapacity && !mClosed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        }
+        if (mClosed) {
+            throw new IOException("The writer has stopped");
+        }
+        add(days, index);
+        notifyAll();
+    }
+
+    /* Only called with room to spare */
+    private void add(ForecastBatch days, int index) {
+        int tail = (mHead + mCount) % mCapacity;
+        mDates[tail] = days.getDate(index);
+        mWeatherIds[tail] = days.getWeatherId(index);
+        mMinTemps[tail] = days.getMinTemp(index);
+        mMaxTemps[tail] = days.getMaxTemp(index);
+        mHumidities[tail] = days.getHumidity(index);
+        mPressures[tail] = days.getPressure(index);
+        mWindSpeeds[tail] = days.getWindSpeed(index);
+        mDegrees[tail] = days.getDegrees(index);
+        mCount++;
+    }
+
+    /**
+     * Tells the writer that every day has been put.
+     */
+    public synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * Tells the writer that the forecast is unusable. Does nothing once the pipe has been
+     * finished.
+     *
+     * @param cause Why, handed to the writer
+     */
+    public synchronized void fail(Exception cause) {
+        if (mFinished || mFailure != null) {
+            return;
+        }
+        mFailure = cause;
+        notifyAll();
+    }
+
+    /**
+     * Takes the next day, waiting for the parser if it hasn't put one yet, and appends it to the
+     * given batch.
+     * <p>
+     * A forecast is all or nothing. Once the parser has failed the pipe, this throws right away,
+     * even if days it put before the failure are still waiting to be taken: the writer drops the
+     * whole forecast anyway, so there is no point handing it the rest first.
+     *
+     * @param into Gets the day appended to its end
+     * @return true if a day was taken, false once all of them have been
+     * @throws IOException If the parser failed, or the thread was interrupted
+     */
+    public synchronized boolean take(ForecastBatch into) throws IOException {
+        while (mCount == 0 && !mFinished && mFailure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the parser");
+            }
+        }
+        /* Checked before the queue, see above */
+        if (mFailure != null) {
+            throw new IOException("The forecast could not be read", mFailure);
+        }
+        if (mCount == 0) {
+            return false;
+        }
+
+        into.add(mDates[mHead], mWeatherIds[mHead], mMinTemps[mHead], mMaxTemps[mHead],
+                mHumidities[mHead], mPressures[mHead], mWindSpeeds[mHead], mDegrees[mHead]);
+        mHead = (mHead + 1) % mCapacity;
+        mCount--;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Tells the parser that nobody takes any more days.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        mCount = 0;
+        notifyAll();
+    }
+}
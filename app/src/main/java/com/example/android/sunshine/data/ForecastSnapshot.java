@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the forecast, sorted by date, with one primitive array per column.
+ * <p>
+ * Because a snapshot never changes once it is built, any number of threads can read it without
+ * locking. A newer forecast is published by building a new snapshot and swapping it into
+ * {@link ForecastSnapshotCache}; readers holding the old one keep a consistent view of it.
+ * <p>
+ * Columns that weren't available when the snapshot was built (for example, a snapshot built from
+ * a Cursor that only projected some of the columns) read as 0 for the weather ID and as NaN for
+ * every other column.
+ */
+public final class ForecastSnapshot {
+
+    /* Every column a snapshot holds, for queries whose result becomes a complete snapshot */
+    public static final String[] SNAPSHOT_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final ForecastSnapshot EMPTY = new ForecastSnapshot(0);
+
+    private final int mSize;
+
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+
+    private ForecastSnapshot(int size) {
+        mSize = size;
+        mDates = new long[size];
+        mWeatherIds = new int[size];
+        mMinTemps = new double[size];
+        mMaxTemps = new double[size];
+        mHumidities = new double[size];
+        mPressures = new double[size];
+        mWindSpeeds = new double[size];
+        mDegrees = new double[size];
+    }
+
+    private ForecastSnapshot(ForecastSnapshot source, int from, int to) {
+        mSize = to - from;
+        mDates = Arrays.copyOfRange(source.mDates, from, to);
+        mWeatherIds = Arrays.copyOfRange(source.mWeatherIds, from, to);
+        mMinTemps = Arrays.copyOfRange(source.mMinTemps, from, to);
+        mMaxTemps = Arrays.copyOfRange(source.mMaxTemps, from, to);
+        mHumidities = Arrays.copyOfRange(source.mHumidities, from, to);
+        mPressures = Arrays.copyOfRange(source.mPressures, from, to);
+        mWindSpeeds = Arrays.copyOfRange(source.mWindSpeeds, from, to);
+        mDegrees = Arrays.copyOfRange(source.mDegrees, from, to);
+    }
+
+    /**
+     * @return A snapshot without any days
+     */
+    public static ForecastSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a snapshot from the forecast as it is handed to the ContentProvider. Values without
+     * a date are skipped.
+     *
+     * @param weatherValues One set of column_name/value pairs per day
+     * @return The snapshot, sorted by date
+     */
+    public static ForecastSnapshot fromContentValues(ContentValues[] weatherValues) {
+        int size = 0;
+        for (ContentValues value : weatherValues) {
+            if (value.getAsLong(WeatherEntry.COLUMN_DATE) != null) size++;
+        }
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(size);
+        int i = 0;
+        for (ContentValues value : weatherValues) {
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (date == null) continue;
+
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            snapshot.mDates[i] = date;
+            snapshot.mWeatherIds[i] = weatherId == null ? 0 : weatherId;
+            snapshot.mMinTemps[i] = getDouble(value, WeatherEntry.COLUMN_MIN_TEMP);
+            snapshot.mMaxTemps[i] = getDouble(value, WeatherEntry.COLUMN_MAX_TEMP);
+            snapshot.mHumidities[i] = getDouble(value, WeatherEntry.COLUMN_HUMIDITY);
+            snapshot.mPressures[i] = getDouble(value, WeatherEntry.COLUMN_PRESSURE);
+            snapshot.mWindSpeeds[i] = getDouble(value, WeatherEntry.COLUMN_WIND_SPEED);
+            snapshot.mDegrees[i] = getDouble(value, WeatherEntry.COLUMN_DEGREES);
+            i++;
+        }
+
+        snapshot.sortByDate();
+        return snapshot;
+    }
+
+    /**
+     * Builds a snapshot from every row of a Cursor. The Cursor must include
+     * {@link WeatherEntry#COLUMN_DATE}; any other column it doesn't include is left empty. The
+     * Cursor's position is changed, but it isn't closed.
+     *
+     * @param cursor The rows to copy
+     * @return The snapshot, sorted by date
+     */
+    public static ForecastSnapshot fromCursor(Cursor cursor) {
+        int dateIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        int minTempIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+        int maxTempIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int humidityIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY);
+        int pressureIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE);
+        int windSpeedIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES);
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(cursor.getCount());
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && i < snapshot.mSize) {
+            snapshot.mDates[i] = cursor.getLong(dateIndex);
+            snapshot.mWeatherIds[i] = weatherIdIndex == -1 ? 0 : cursor.getInt(weatherIdIndex);
+            snapshot.mMinTemps[i] = getDouble(cursor, minTempIndex);
+            snapshot.mMaxTemps[i] = getDouble(cursor, maxTempIndex);
+            snapshot.mHumidities[i] = getDouble(cursor, humidityIndex);
+            snapshot.mPressures[i] = getDouble(cursor, pressureIndex);
+            snapshot.mWindSpeeds[i] = getDouble(cursor, windSpeedIndex);
+            snapshot.mDegrees[i] = getDouble(cursor, degreesIndex);
+            i++;
+        }
+
+        snapshot.sortByDate();
+        return snapshot;
+    }
+
+    private static double getDouble(ContentValues value, String column) {
+        Double columnValue = value.getAsDouble(column);
+        return columnValue == null ? Double.NaN : columnValue;
+    }
+
+    private static double getDouble(Cursor cursor, int columnIndex) {
+        return columnIndex == -1 ? Double.NaN : cursor.getDouble(columnIndex);
+    }
+
+    /*
+     * Only used while building a snapshot. The forecast almost always arrives in order already,
+     * and never holds more than a couple of weeks, so an insertion sort is all we need.
+     */
+    private void sortByDate() {
+        for (int i = 1; i < mSize; i++) {
+            for (int j = i; j > 0 && mDates[j - 1] > mDates[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        long date = mDates[a];
+        mDates[a] = mDates[b];
+        mDates[b] = date;
+
+        int weatherId = mWeatherIds[a];
+        mWeatherIds[a] = mWeatherIds[b];
+        mWeatherIds[b] = weatherId;
+
+        swap(mMinTemps, a, b);
+        swap(mMaxTemps, a, b);
+        swap(mHumidities, a, b);
+        swap(mPressures, a, b);
+        swap(mWindSpeeds, a, b);
+        swap(mDegrees, a, b);
+    }
+
+    private static void swap(double[] values, int a, int b) {
+        double value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    /**
+     * Returns the days of this snapshot from the given date onwards. This snapshot itself is
+     * returned if it doesn't hold any earlier days.
+     *
+     * @param date Normalized UTC date in milliseconds
+     * @return A snapshot without the days before the given date
+     */
+    public ForecastSnapshot startingFrom(long date) {
+        int from = 0;
+        while (from < mSize && mDates[from] < date) {
+            from++;
+        }
+        if (from == 0) return this;
+        return new ForecastSnapshot(this, from, mSize);
+    }
+
+    /**
+     * @param date Normalized UTC date in milliseconds
+     * @return The index of the given date within this snapshot, or -1 if it isn't in here
+     */
+    public int indexOfDate(long date) {
+        int index = Arrays.binarySearch(mDates, 0, mSize, date);
+        return index < 0 ? -1 : index;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int index) {
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemps[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemps[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidities[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressures[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeeds[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the latest complete {@link ForecastSnapshot} for this process, so that the forecast
+ * list, the detail screen, notifications and the start-up check can show the forecast without
+ * going to the database for the same couple of weeks of rows again and again.
+ * <p>
+ * Snapshots are always read back from the database, never built from a response on its way in,
+ * so the cache only ever holds what WeatherProvider has stored for the primary location. Every
+ * write to those rows calls {@link #invalidate()}, which empties the cache and starts a new
+ * generation. Whoever reads the database to fill the cache takes {@link #getGeneration()} first
+ * and hands it to {@link #set(ForecastSnapshot, long)}, which drops the snapshot if anything was
+ * written in the meantime. That way a query that raced with a write can never put the older
+ * forecast back. Reading the cache never blocks, since the snapshot in it is immutable.
+ * <p>
+ * The cache is only a shortcut within this process. WeatherProvider remains the source of truth,
+ * and anything that needs to hear about changes should still observe it.
+ */
+public final class ForecastSnapshotCache {
+
+    private static final AtomicReference<Entry> sEntry =
+            new AtomicReference<>(new Entry(null, 0));
+
+    private ForecastSnapshotCache() {
+    }
+
+    /**
+     * @return The latest forecast, or null if the cache is empty
+     */
+    @Nullable
+    public static ForecastSnapshot get() {
+        return sEntry.get().mSnapshot;
+    }
+
+    /**
+     * @return The current generation, to be taken before querying for a snapshot to
+     * {@link #set(ForecastSnapshot, long)}
+     */
+    public static long getGeneration() {
+        return sEntry.get().mGeneration;
+    }
+
+    /**
+     * Fills the cache with a forecast read from the database, unless the primary location's
+     * weather has been written or the cache invalidated since the given generation was taken.
+     *
+     * @param snapshot   The forecast as read from the ContentProvider
+     * @param generation What {@link #getGeneration()} returned before the query
+     * @return true if the snapshot is now cached
+     */
+    public static boolean set(ForecastSnapshot snapshot, long generation) {
+        while (true) {
+            Entry current = sEntry.get();
+            if (current.mGeneration != generation) return false;
+            if (sEntry.compareAndSet(current, new Entry(snapshot, generation))) return true;
+        }
+    }
+
+    /**
+     * Empties the cache and starts a new generation, so that no snapshot read before now can be
+     * put in any more. WeatherProvider calls this after every write to the primary location, and
+     * so should anyone who knows the stored forecast no longer applies, for example because the
+     * user picked another location.
+     */
+    public static void invalidate() {
+        while (true) {
+            Entry current = sEntry.get();
+            if (sEntry.compareAndSet(current, new Entry(null, current.mGeneration + 1))) return;
+        }
+    }
+
+    /* The snapshot and the generation it was read in, swapped together */
+    private static final class Entry {
+        final ForecastSnapshot mSnapshot;
+        final long mGeneration;
+
+        Entry(ForecastSnapshot snapshot, long generation) {
+            mSnapshot = snapshot;
+            mGeneration = generation;
+        }
+    }
+}
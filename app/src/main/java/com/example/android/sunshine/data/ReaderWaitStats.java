@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of how long queries wait for their results while WeatherProvider is writing to
+ * the database. With write-ahead logging, reads during a sync should take about as long as
+ * reads at any other time; if they don't, this is where it shows.
+ * <p>
+ * WeatherProvider calls {@link #beginWrite()} and {@link #endWrite()} around each write
+ * transaction and reports every query that started while a write was in flight. The sync reads
+ * and resets the numbers with {@link #takeSummary()} once it is done.
+ */
+public final class ReaderWaitStats {
+
+    private static int sWritesInProgress;
+
+    private static int sReadCount;
+    private static long sTotalWaitNanos;
+    private static long sMaxWaitNanos;
+
+    private ReaderWaitStats() {
+    }
+
+    static synchronized void beginWrite() {
+        sWritesInProgress++;
+    }
+
+    static synchronized void endWrite() {
+        sWritesInProgress--;
+    }
+
+    static synchronized boolean isWriteInProgress() {
+        return sWritesInProgress > 0;
+    }
+
+    /**
+     * Records a query that started while a write was in flight.
+     *
+     * @param waitNanos How long the query took to return its first window of results
+     */
+    static synchronized void recordRead(long waitNanos) {
+        sReadCount++;
+        sTotalWaitNanos += waitNanos;
+        if (waitNanos > sMaxWaitNanos) {
+            sMaxWaitNanos = waitNanos;
+        }
+    }
+
+    /**
+     * Describes the queries recorded since the last call and starts counting from zero again.
+     *
+     * @return A single line suitable for the log
+     */
+    public static synchronized String takeSummary() {
+        String summary = sReadCount + " reads during writes, total wait "
+                + TimeUnit.NANOSECONDS.toMillis(sTotalWaitNanos) + " ms, max wait "
+                + TimeUnit.NANOSECONDS.toMillis(sMaxWaitNanos) + " ms";
+
+        sReadCount = 0;
+        sTotalWaitNanos = 0;
+        sMaxWaitNanos = 0;
+
+        return summary;
+    }
+}
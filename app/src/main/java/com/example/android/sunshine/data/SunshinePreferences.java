@@ -18,9 +18,16 @@ package com.example.android.sunshine.data;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +38,13 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The locations the user tracks besides their own, as location queries such as "Paris,FR".
+     * Each one's weather is stored under its query as location key, see
+     * WeatherContract.WeatherEntry#buildWeatherUriForLocation.
+     */
+    public static final String PREF_TRACKED_LOCATIONS = "tracked_locations";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -242,4 +256,63 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the locations the user tracks besides their own, in alphabetical order.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The location query of every tracked location, empty if there are none
+     */
+    public static List<String> getTrackedLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> trackedLocations =
+                sp.getStringSet(PREF_TRACKED_LOCATIONS, Collections.<String>emptySet());
+
+        List<String> sortedLocations = new ArrayList<>(trackedLocations);
+        Collections.sort(sortedLocations);
+        return sortedLocations;
+    }
+
+    /**
+     * Starts tracking the weather of another location, next to the user's own.
+     *
+     * @param context       Used to access SharedPreferences
+     * @param locationQuery The location, in the same form as the location preference
+     * @return true if the location wasn't tracked yet
+     */
+    public static boolean addTrackedLocation(Context context, String locationQuery) {
+        if (TextUtils.isEmpty(locationQuery)) {
+            throw new IllegalArgumentException("A tracked location needs a location query");
+        }
+        return editTrackedLocations(context, locationQuery, true);
+    }
+
+    /**
+     * Stops tracking the weather of a location.
+     *
+     * @param context       Used to access SharedPreferences
+     * @param locationQuery The location, as it was added
+     * @return true if the location was tracked
+     */
+    public static boolean removeTrackedLocation(Context context, String locationQuery) {
+        return editTrackedLocations(context, locationQuery, false);
+    }
+
+    /*
+     * The Set returned by getStringSet must not be modified, so every edit writes a copy.
+     */
+    private static boolean editTrackedLocations(Context context, String locationQuery,
+                                                boolean add) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> trackedLocations = new HashSet<>(
+                sp.getStringSet(PREF_TRACKED_LOCATIONS, Collections.<String>emptySet()));
+
+        boolean changed = add
+                ? trackedLocations.add(locationQuery)
+                : trackedLocations.remove(locationQuery);
+        if (changed) {
+            sp.edit().putStringSet(PREF_TRACKED_LOCATIONS, trackedLocations).apply();
+        }
+        return changed;
+    }
+}
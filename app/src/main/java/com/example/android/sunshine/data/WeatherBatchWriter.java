@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * Inserts rows into the weather table through a single precompiled INSERT statement, and
+ * rewrites stored rows through a single precompiled UPDATE statement.
+ * <p>
+ * SQLiteDatabase#insert builds and compiles a new INSERT statement for every row it is given.
+ * This class compiles the statement once and then only binds new values to it for each row,
+ * which makes large batches considerably cheaper. The caller is responsible for wrapping the
+ * inserts in a transaction and for closing the writer once it is done.
+ */
+final class WeatherBatchWriter {
+
+    /*
+     * The number of columns every row needs a value for, i.e. every column except _ID and the
+     * location, which is the same for every row the writer inserts
+     */
+    private static final int COLUMN_COUNT = 8;
+
+    /*
+     * The weather table's UNIQUE (location_key, date) ON CONFLICT REPLACE also applies to this
+     * statement
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_LOCATION_KEY + ", "
+                    + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* Rewrites every column of a stored day except its location and date */
+    private static final String SQL_UPDATE_WEATHER =
+            "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+                    + WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+                    + WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+                    + WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+                    + WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+                    + WeatherEntry.COLUMN_PRESSURE + " = ?, "
+                    + WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+                    + WeatherEntry.COLUMN_DEGREES + " = ? "
+                    + "WHERE " + WeatherEntry.COLUMN_LOCATION_KEY + " = ? AND "
+                    + WeatherEntry.COLUMN_DATE + " = ?";
+
+    /* Bind indices of the INSERT statement above. SQLite bind indices start at 1. */
+    private static final int BIND_LOCATION_KEY = 1;
+    private static final int BIND_DATE = 2;
+    private static final int BIND_WEATHER_ID = 3;
+    private static final int BIND_MIN_TEMP = 4;
+    private static final int BIND_MAX_TEMP = 5;
+    private static final int BIND_HUMIDITY = 6;
+    private static final int BIND_PRESSURE = 7;
+    private static final int BIND_WIND_SPEED = 8;
+    private static final int BIND_DEGREES = 9;
+
+    /* Bind indices of the UPDATE statement above */
+    private static final int BIND_UPDATE_WEATHER_ID = 1;
+    private static final int BIND_UPDATE_MIN_TEMP = 2;
+    private static final int BIND_UPDATE_MAX_TEMP = 3;
+    private static final int BIND_UPDATE_HUMIDITY = 4;
+    private static final int BIND_UPDATE_PRESSURE = 5;
+    private static final int BIND_UPDATE_WIND_SPEED = 6;
+    private static final int BIND_UPDATE_DEGREES = 7;
+    private static final int BIND_UPDATE_LOCATION_KEY = 8;
+    private static final int BIND_UPDATE_DATE = 9;
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteStatement mInsertStatement;
+    private final String mLocationKey;
+
+    /* Only compiled once the first update comes along; most writers never need it */
+    private SQLiteStatement mUpdateStatement;
+
+    /**
+     * Creates a writer for the user's own location.
+     */
+    WeatherBatchWriter(SQLiteDatabase database) {
+        this(database, WeatherEntry.PRIMARY_LOCATION_KEY);
+    }
+
+    /**
+     * Creates a writer that inserts every row for the given location.
+     *
+     * @param locationKey The key of the location, see WeatherEntry#COLUMN_LOCATION_KEY
+     */
+    WeatherBatchWriter(SQLiteDatabase database, String locationKey) {
+        mDatabase = database;
+        mLocationKey = locationKey;
+        mInsertStatement = database.compileStatement(SQL_INSERT_WEATHER);
+    }
+
+    /**
+     * Inserts a single day of weather.
+     *
+     * @return The row ID of the newly inserted row
+     * @throws IllegalArgumentException If the date isn't normalized
+     */
+    long insert(long date, int weatherId, double minTemp, double maxTemp,
+                double humidity, double pressure, double windSpeed, double degrees) {
+        if (!SunshineDateUtils.isDateNormalized(date)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+
+        mInsertStatement.bindString(BIND_LOCATION_KEY, mLocationKey);
+        mInsertStatement.bindLong(BIND_DATE, date);
+        mInsertStatement.bindLong(BIND_WEATHER_ID, weatherId);
+        mInsertStatement.bindDouble(BIND_MIN_TEMP, minTemp);
+        mInsertStatement.bindDouble(BIND_MAX_TEMP, maxTemp);
+        mInsertStatement.bindDouble(BIND_HUMIDITY, humidity);
+        mInsertStatement.bindDouble(BIND_PRESSURE, pressure);
+        mInsertStatement.bindDouble(BIND_WIND_SPEED, windSpeed);
+        mInsertStatement.bindDouble(BIND_DEGREES, degrees);
+
+        return mInsertStatement.executeInsert();
+    }
+
+    /**
+     * Overwrites the weather stored for a day of the writer's location.
+     *
+     * @return The number of rows updated, which is 0 if the day isn't stored yet
+     */
+    int update(long date, int weatherId, double minTemp, double maxTemp,
+               double humidity, double pressure, double windSpeed, double degrees) {
+        if (mUpdateStatement == null) {
+            mUpdateStatement = mDatabase.compileStatement(SQL_UPDATE_WEATHER);
+        }
+
+        mUpdateStatement.bindLong(BIND_UPDATE_WEATHER_ID, weatherId);
+        mUpdateStatement.bindDouble(BIND_UPDATE_MIN_TEMP, minTemp);
+        mUpdateStatement.bindDouble(BIND_UPDATE_MAX_TEMP, maxTemp);
+        mUpdateStatement.bindDouble(BIND_UPDATE_HUMIDITY, humidity);
+        mUpdateStatement.bindDouble(BIND_UPDATE_PRESSURE, pressure);
+        mUpdateStatement.bindDouble(BIND_UPDATE_WIND_SPEED, windSpeed);
+        mUpdateStatement.bindDouble(BIND_UPDATE_DEGREES, degrees);
+        mUpdateStatement.bindString(BIND_UPDATE_LOCATION_KEY, mLocationKey);
+        mUpdateStatement.bindLong(BIND_UPDATE_DATE, date);
+
+        return mUpdateStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Inserts a single day of weather given as ContentValues. Rows that don't hold exactly the
+     * columns of the weather table (for example, an explicit _ID or a missing column) can't use
+     * the precompiled statement, so they go through SQLiteDatabase#insert, which also preserves
+     * its behaviour of returning -1 rather than throwing when a NOT NULL column is missing.
+     * Either way, the row is inserted for the writer's location, whatever location it names.
+     *
+     * @return The row ID of the newly inserted row, or -1 if an error occurred
+     * @throws IllegalArgumentException If the date isn't normalized
+     */
+    long insert(ContentValues value) {
+        Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date == null || !SunshineDateUtils.isDateNormalized(date)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+
+        Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+        boolean hasExactlyTableColumns = value.size() == COLUMN_COUNT
+                && weatherId != null
+                && minTemp != null
+                && maxTemp != null
+                && humidity != null
+                && pressure != null
+                && windSpeed != null
+                && degrees != null;
+
+        if (!hasExactlyTableColumns) {
+            ContentValues locatedValue = new ContentValues(value);
+            locatedValue.put(WeatherEntry.COLUMN_LOCATION_KEY, mLocationKey);
+            return mDatabase.insert(WeatherEntry.TABLE_NAME, null, locatedValue);
+        }
+
+        return insert(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+    }
+
+    /**
+     * Inserts every day of a forecast batch.
+     *
+     * @return The number of rows inserted
+     * @throws IllegalArgumentException If any of the dates isn't normalized
+     */
+    int insertAll(ForecastBatch forecastBatch) {
+        int rowsInserted = 0;
+        for (int i = 0; i < forecastBatch.size(); i++) {
+            long _id = insert(forecastBatch.getDate(i),
+                    forecastBatch.getWeatherId(i),
+                    forecastBatch.getMinTemp(i),
+                    forecastBatch.getMaxTemp(i),
+                    forecastBatch.getHumidity(i),
+                    forecastBatch.getPressure(i),
+                    forecastBatch.getWindSpeed(i),
+                    forecastBatch.getDegrees(i));
+            if (_id != -1) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Releases the precompiled statements.
+     */
+    void close() {
+        mInsertStatement.close();
+        if (mUpdateStatement != null) {
+            mUpdateStatement.close();
+        }
+    }
+}
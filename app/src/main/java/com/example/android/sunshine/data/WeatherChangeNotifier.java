@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the URIs WeatherProvider changes and tells observers about them in as few
+ * notifications as possible.
+ * <p>
+ * Every notification wakes up the forecast list, the detail screen and anything else watching
+ * the weather, and each of them queries the database again. Instead of notifying on every write,
+ * the provider hands the changed URIs to this class, which waits a short moment for more
+ * changes and then notifies once:
+ * <ul>
+ * <li>If only one URI changed, for example a single day, only that URI is notified.</li>
+ * <li>If several changed, the URI of their location (see
+ * {@link WeatherEntry#buildWeatherUriForLocation(String)}) is notified once, which for the
+ * user's own location is {@link WeatherEntry#CONTENT_URI}. Observers of the list and of each day
+ * are all registered beneath it, so they all hear about it, while observers of other locations
+ * aren't woken up.</li>
+ * <li>In the rare case that several locations changed at once, the whole provider is notified
+ * through {@link WeatherContract#BASE_CONTENT_URI}.</li>
+ * </ul>
+ * The provider calls {@link #flush()} at the end of a sync or a batch, since those are already
+ * a single transaction and there is no point waiting for more.
+ */
+public final class WeatherChangeNotifier {
+
+    /* How long to wait for further changes before notifying */
+    static final long COALESCE_WINDOW_MILLIS = 100;
+
+    /* The number of notifications fired by every notifier in this process */
+    private static final AtomicInteger sNotificationsFired = new AtomicInteger();
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    WeatherChangeNotifier(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Records that the data at the given URI changed. Observers are notified within
+     * {@link #COALESCE_WINDOW_MILLIS}, or right away when {@link #flush()} is called.
+     *
+     * @param uri The URI whose data changed
+     */
+    void notifyChange(Uri uri) {
+        synchronized (mPendingUris) {
+            mPendingUris.add(uri);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, COALESCE_WINDOW_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Notifies observers of every change recorded so far, in a single notification. Does
+     * nothing if nothing changed.
+     */
+    void flush() {
+        Uri uriToNotify;
+
+        synchronized (mPendingUris) {
+            if (mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+            }
+
+            if (mPendingUris.isEmpty()) return;
+
+            if (mPendingUris.size() == 1) {
+                uriToNotify = mPendingUris.iterator().next();
+            } else {
+                uriToNotify = getCommonLocationUri(mPendingUris);
+            }
+            mPendingUris.clear();
+        }
+
+        mContentResolver.notifyChange(uriToNotify, null);
+        sNotificationsFired.incrementAndGet();
+    }
+
+    /*
+     * Returns the URI of the location every one of the URIs belongs to, or the provider's base
+     * URI if they belong to different locations.
+     */
+    private static Uri getCommonLocationUri(Set<Uri> uris) {
+        String locationKey = null;
+        for (Uri uri : uris) {
+            String uriLocationKey = WeatherEntry.getLocationKeyFromUri(uri);
+            if (locationKey == null) {
+                locationKey = uriLocationKey;
+            } else if (!locationKey.equals(uriLocationKey)) {
+                return WeatherContract.BASE_CONTENT_URI;
+            }
+        }
+        return WeatherEntry.buildWeatherUriForLocation(locationKey);
+    }
+
+    /**
+     * Returns how many notifications have been fired in this process so far. Compare the count
+     * before and after a sync to see how many times that sync woke up observers.
+     *
+     * @return The number of notifications fired
+     */
+    public static int getNotificationsFired() {
+        return sNotificationsFired.get();
+    }
+}
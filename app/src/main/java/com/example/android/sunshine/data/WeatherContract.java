@@ -20,6 +20,8 @@ import android.provider.BaseColumns;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.List;
+
 /**
  * Defines table and column names for the weather database. This class is not necessary, but keeps
  * the code organized.
@@ -56,6 +58,24 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to the weather path to form the URI that incremental syncs bulkInsert into.
+     * Rather than adding every row it is given, WeatherProvider compares them to the rows
+     * already stored and only writes what has changed.
+     */
+    public static final String PATH_SYNC = "sync";
+
+    /*
+     * The weather for a location the user tracks besides their own lives under this path rather
+     * than under PATH_WEATHER, followed by the location's key. For instance,
+     *
+     *     content://com.example.android.sunshine/location/Paris%2CFR/1472214172
+     *
+     * is a single day of weather in Paris. Keeping it apart from PATH_WEATHER means a sync of
+     * Paris doesn't wake up the forecast list, which observes the user's own location.
+     */
+    public static final String PATH_LOCATION = "location";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +84,23 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * bulkInsert into this URI to replace the stored forecast incrementally. Rows are matched
+         * by COLUMN_DATE: new and changed rows are written, identical rows are left alone, and
+         * only days in the past are deleted. Observers are only notified of the dates (see
+         * buildWeatherUriWithDate) that actually changed.
+         */
+        public static final Uri CONTENT_SYNC_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC)
+                .build();
+
+        /*
+         * The key of the location the user picked in the settings. Every URI without a location
+         * in it, such as CONTENT_URI, means this location. It is empty, so it can never clash
+         * with the key of a tracked location (see buildWeatherUriForLocation).
+         */
+        public static final String PRIMARY_LOCATION_KEY = "";
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -85,6 +122,14 @@ public class WeatherContract {
          */
         public static final String COLUMN_DATE = "date";
 
+        /*
+         * The location a row of weather belongs to: PRIMARY_LOCATION_KEY for the user's own
+         * location, or the location query of a location they track. Each location has at most
+         * one row per date. The provider fills this in from the URI, so it never has to be part
+         * of the ContentValues handed to it.
+         */
+        public static final String COLUMN_LOCATION_KEY = "location_key";
+
         /* Weather ID as returned by API, used to identify the icon to be used */
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -123,6 +168,65 @@ public class WeatherContract {
                     .build();
         }
 
+        /**
+         * Builds the URI of every day of weather for a location. For PRIMARY_LOCATION_KEY, this
+         * is CONTENT_URI; any other key is a location the user tracks besides their own, as
+         * listed by SunshinePreferences#getTrackedLocations. Querying, updating and deleting
+         * through the URI only ever touches that location's rows.
+         *
+         * @param locationKey The key of the location
+         * @return Uri for the weather of that location
+         */
+        public static Uri buildWeatherUriForLocation(String locationKey) {
+            if (PRIMARY_LOCATION_KEY.equals(locationKey)) {
+                return CONTENT_URI;
+            }
+            return BASE_CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(locationKey)
+                    .build();
+        }
+
+        /**
+         * Like {@link #buildWeatherUriWithDate(long)}, but for any location.
+         *
+         * @param locationKey The key of the location
+         * @param date        Normalized date in milliseconds
+         * @return Uri to query details about a single day of weather at that location
+         */
+        public static Uri buildWeatherUriForLocationWithDate(String locationKey, long date) {
+            return buildWeatherUriForLocation(locationKey).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Like {@link #CONTENT_SYNC_URI}, but for any location. A sync through this URI only
+         * compares against, and only prunes, the rows of that location.
+         *
+         * @param locationKey The key of the location
+         * @return Uri to bulkInsert a freshly downloaded forecast for that location into
+         */
+        public static Uri buildSyncUriForLocation(String locationKey) {
+            return buildWeatherUriForLocation(locationKey).buildUpon()
+                    .appendPath(PATH_SYNC)
+                    .build();
+        }
+
+        /**
+         * Returns the key of the location a weather URI refers to.
+         *
+         * @param uri Any URI WeatherProvider handles
+         * @return The key of the location in the URI, or PRIMARY_LOCATION_KEY if it has none
+         */
+        public static String getLocationKeyFromUri(Uri uri) {
+            List<String> pathSegments = uri.getPathSegments();
+            if (pathSegments.size() >= 2 && PATH_LOCATION.equals(pathSegments.get(0))) {
+                return pathSegments.get(1);
+            }
+            return PRIMARY_LOCATION_KEY;
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
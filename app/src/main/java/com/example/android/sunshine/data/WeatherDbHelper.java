@@ -19,6 +19,7 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.R;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -43,10 +44,70 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 5;
 
+    /*
+     * Version 4 added INDEX_FORECAST_LIST, version 5 the location column, which rebuilds the
+     * index along with the table. Databases older than version 3 predate the current table
+     * layout and are still recreated from scratch.
+     */
+    private static final int DATABASE_VERSION_LOCATIONS = 5;
+    private static final int DATABASE_VERSION_CURRENT_TABLE = 3;
+
+    /*
+     * A covering index for the main forecast list (see MainActivity.MAIN_FORECAST_PROJECTION).
+     * The list asks for every day of one location from today onwards, ordered by date, and only
+     * reads the date, high, low and weather ID columns. With the location first and all four
+     * columns after it, SQLite can answer that query from the index alone, in order, without
+     * touching the table and without reading any other location's rows. The same columns also
+     * cover the single-day query used for notifications.
+     */
+    static final String INDEX_FORECAST_LIST = "weather_forecast_list_idx";
+
+    /* The size of SQLite's page cache for the primary connection, in KiB */
+    private final int mPageCacheSizeKb;
+
+    /**
+     * Creates a helper that uses write-ahead logging, and sizes the page cache of its primary
+     * connection from R.integer.weather_db_page_cache_size_kb.
+     * <p>
+     * With the default rollback journal, a sync writing the forecast locks out every reader
+     * (the forecast list, the detail screen, notifications) until its transaction commits.
+     * With write-ahead logging, readers keep seeing the last committed forecast while the sync
+     * writes, and the framework hands them their own connections so they don't queue up behind
+     * the writer.
+     *
+     * @param context The context used to open the database and read its configuration
+     */
     public WeatherDbHelper(Context context) {
+        this(context, context.getResources().getInteger(R.integer.weather_db_page_cache_size_kb));
+    }
+
+    /**
+     * @param context         The context used to open the database
+     * @param pageCacheSizeKb The size of the primary connection's page cache, in KiB
+     */
+    public WeatherDbHelper(Context context, int pageCacheSizeKb) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mPageCacheSizeKb = pageCacheSizeKb;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Called when the database connection is being configured, before it is created, upgraded
+     * or opened. A negative cache_size is a size in KiB rather than a number of pages, so the
+     * setting doesn't depend on the page size of the device's SQLite build.
+     * <p>
+     * cache_size belongs to a single connection, and this is only called for the primary one,
+     * which runs every write and every transaction. The connections the framework opens for
+     * readers under write-ahead logging never come through here, so they keep SQLite's default
+     * page cache.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("PRAGMA cache_size = -" + mPageCacheSizeKb);
     }
 
     /**
@@ -57,6 +118,16 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createWeatherTable(sqLiteDatabase);
+        createForecastListIndex(sqLiteDatabase);
+    }
+
+    /**
+     * Creates the weather table.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase) {
 
         /*
          * This String will contain a simple SQL statement that will create a table that will
@@ -73,6 +144,13 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  */
                 WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
+                /*
+                 * Rows that don't say which location they belong to are the user's own
+                 * location's, which keeps every insert written before locations existed working.
+                 */
+                WeatherEntry.COLUMN_LOCATION_KEY + " TEXT NOT NULL DEFAULT '"
+                        + WeatherEntry.PRIMARY_LOCATION_KEY + "', "                    +
+
                 WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
@@ -87,12 +165,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per date and location,
+                 * we declare the pair of columns to be unique. We also specify "ON CONFLICT
+                 * REPLACE". This tells SQLite that if we have a weather entry for a certain date
+                 * and location and we attempt to insert another weather entry with that date and
+                 * location, we replace the old weather entry.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_KEY + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
@@ -102,12 +182,31 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Creates {@link #INDEX_FORECAST_LIST}.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void createForecastListIndex(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_FORECAST_LIST_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + INDEX_FORECAST_LIST
+                        + " ON " + WeatherEntry.TABLE_NAME + " ("
+                        + WeatherEntry.COLUMN_LOCATION_KEY + ", "
+                        + WeatherEntry.COLUMN_DATE + ", "
+                        + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                        + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                        + WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_LIST_INDEX);
+    }
+
+    /**
+     * Migrates the database one schema version at a time, so that the weather we already have
+     * survives upgrades. Note that this only fires if you change the version number for your
+     * database (in our case, DATABASE_VERSION). It does NOT depend on the version number for your
+     * application found in your app/build.gradle file.
+     * <p>
+     * Databases from before version 3 have a different table layout. Since this database is only
+     * a cache for online data, those are simply dropped and recreated.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +214,51 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < DATABASE_VERSION_CURRENT_TABLE) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        if (oldVersion < DATABASE_VERSION_LOCATIONS) {
+            /*
+             * The index leads with the location column, so it can't be created before that
+             * column exists. addLocationColumn creates it along with the new table, which also
+             * takes care of databases from version 3 that don't have the index at all.
+             */
+            addLocationColumn(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Moves the weather into a table with the location column. SQLite can add a column to a
+     * table, but not change its UNIQUE constraint, so the table is rebuilt. Every row we already
+     * have belongs to the user's own location, which is what the column defaults to.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void addLocationColumn(SQLiteDatabase sqLiteDatabase) {
+        final String oldTableName = WeatherEntry.TABLE_NAME + "_v4";
+        final String weatherColumns = WeatherEntry._ID + ", "
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES;
+
+        /* The index would move along with the renamed table and keep its name taken */
+        sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + INDEX_FORECAST_LIST);
+        sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME
+                + " RENAME TO " + oldTableName);
+
+        createWeatherTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + weatherColumns + ") SELECT " + weatherColumns + " FROM " + oldTableName);
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTableName);
+
+        createForecastListIndex(sqLiteDatabase);
     }
-}
\ No newline at end of file
+}
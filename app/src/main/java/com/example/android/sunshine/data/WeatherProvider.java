@@ -17,24 +17,34 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * insert, bulkInsert, update, query and delete data, and to apply a batch of those operations in
+ * a single transaction with {@link #applyBatch(ArrayList)}.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Although ContentProvider implementation requires the ability to get the type of the data from
+ * a URI, here, it is not implemented for the sake of brevity and simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +55,7 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_SYNC = 102;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -53,6 +64,13 @@ public class WeatherProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherChangeNotifier mChangeNotifier;
+
+    /*
+     * While applyBatch runs on a thread, the URIs its operations changed are collected here
+     * instead of being notified one by one. The set is null on threads that aren't in a batch.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<>();
 
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
@@ -96,6 +114,23 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/sync */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_SYNC,
+                CODE_WEATHER_SYNC);
+
+        /*
+         * The same three URIs for a location the user tracks, such as
+         * content://com.example.android.sunshine/location/Paris%2CFR/1472214172. They match the
+         * same codes, since they mean the same thing for another location; every method finds
+         * out which location with WeatherEntry#getLocationKeyFromUri.
+         */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/*", CODE_WEATHER);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/*/#", CODE_WEATHER_WITH_DATE);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/*/" + WeatherContract.PATH_SYNC,
+                CODE_WEATHER_SYNC);
+
         return matcher;
     }
 
@@ -122,6 +157,7 @@ public class WeatherProvider extends ContentProvider {
          * very lightweight, we are safe to perform that initialization here.
          */
         mOpenHelper = new WeatherDbHelper(getContext());
+        mChangeNotifier = new WeatherChangeNotifier(getContext().getContentResolver());
         return true;
     }
 
@@ -141,41 +177,212 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final String locationKey = WeatherEntry.getLocationKeyFromUri(uri);
 
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
+                ReaderWaitStats.beginWrite();
                 db.beginTransaction();
                 int rowsInserted = 0;
+                /* Compile the INSERT once and reuse it for every row, rather than once per row */
+                WeatherBatchWriter batchWriter = new WeatherBatchWriter(db, locationKey);
                 try {
                     for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = batchWriter.insert(value);
                         if (_id != -1) {
                             rowsInserted++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    batchWriter.close();
                     db.endTransaction();
+                    ReaderWaitStats.endWrite();
                 }
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
+                    flushChangesIfNotInBatch();
                 }
 
                 return rowsInserted;
 
+            case CODE_WEATHER_SYNC:
+                try {
+                    return syncWeather(db, locationKey,
+                            ForecastPipe.of(ForecastBatch.fromContentValues(values)));
+                } catch (IOException e) {
+                    /* A pipe that was full and finished from the start can't fail */
+                    throw new IllegalStateException(e);
+                }
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Does the same as {@link #bulkInsert(Uri, ContentValues[])} with
+     * {@link WeatherEntry#CONTENT_SYNC_URI}, but takes the days from a {@link ForecastPipe} as
+     * the parser puts them in. Nothing is committed unless the parser finishes the pipe; if it
+     * fails the pipe instead, everything written so far is rolled back and this throws.
+     * <p>
+     * Each day is written inside the transaction as soon as it comes off the pipe, so the write
+     * overlaps the download instead of following it.
+     * <p>
+     * This is only reachable from within Sunshine's own process, for example through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * @param pipe The forecast, one day at a time
+     * @return The number of rows that were inserted or updated
+     * @throws IOException If the parser failed the pipe, or the thread was interrupted
+     */
+    public int syncWeather(@NonNull ForecastPipe pipe) throws IOException {
+        try {
+            return syncWeather(mOpenHelper.getWritableDatabase(),
+                    WeatherEntry.PRIMARY_LOCATION_KEY, pipe);
+        } finally {
+            /* Don't leave the parser waiting for room if we stopped early */
+            pipe.close();
+        }
+    }
+
+    /**
+     * Brings one location's weather in line with a freshly downloaded forecast while touching as
+     * little as possible. Incoming rows are matched to that location's stored rows by date: rows
+     * that are new or differ are written, rows that are identical are skipped, and the only rows
+     * deleted are those for days that have already passed. Other locations are left alone. Each
+     * date that actually changed is handed to {@link WeatherChangeNotifier} with the URI from
+     * {@link WeatherEntry#buildWeatherUriForLocationWithDate(String, long)}, and observers are
+     * notified once as soon as the transaction commits.
+     *
+     * @param db          The writable database
+     * @param locationKey The location the forecast is for
+     * @param pipe        The forecast, one day at a time
+     * @return The number of rows that were inserted or updated
+     * @throws IOException If the parser failed the pipe, or the thread was interrupted
+     */
+    private int syncWeather(SQLiteDatabase db, String locationKey, ForecastPipe pipe)
+            throws IOException {
+        /*
+         * The parser dates the forecast from the local date, while the main screen queries from
+         * the UTC date. Whichever is earlier is the first day we still need to keep.
+         */
+        long firstDayToKeep = Math.min(
+                SunshineDateUtils.getNormalizedUtcDateForToday(),
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+
+        List<Long> changedDates = new ArrayList<>();
+        int rowsWritten = 0;
+
+        /*
+         * The database runs in write-ahead logging mode, so readers keep seeing the last committed
+         * forecast for as long as this transaction is open and never wait on it. Keeping it open
+         * while the parser waits on the network only holds up other writers, and those are
+         * serialized behind the sync anyway. Waiting for the first day before starting it just
+         * keeps a request that never gets a response from holding the write lock at all.
+         */
+        ForecastBatch day = new ForecastBatch(1);
+        boolean hasDay = pipe.take(day);
+
+        ReaderWaitStats.beginWrite();
+        db.beginTransaction();
+        WeatherBatchWriter batchWriter = new WeatherBatchWriter(db, locationKey);
+        try {
+            ForecastSnapshot storedRows = readStoredRows(db, locationKey);
+
+            /* Each day is bound straight from the primitives it was parsed into */
+            for (; hasDay; day.clear(), hasDay = pipe.take(day)) {
+                long weatherDate = day.getDate(0);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                /* No point writing a day we would prune right away */
+                if (weatherDate < firstDayToKeep) continue;
+
+                int storedIndex = storedRows.indexOfDate(weatherDate);
+                if (storedIndex == -1) {
+                    if (batchWriter.insert(weatherDate, day.getWeatherId(0),
+                            day.getMinTemp(0), day.getMaxTemp(0), day.getHumidity(0),
+                            day.getPressure(0), day.getWindSpeed(0), day.getDegrees(0)) == -1) {
+                        continue;
+                    }
+                } else if (isSameWeather(storedRows, storedIndex, day)) {
+                    continue;
+                } else {
+                    batchWriter.update(weatherDate, day.getWeatherId(0),
+                            day.getMinTemp(0), day.getMaxTemp(0), day.getHumidity(0),
+                            day.getPressure(0), day.getWindSpeed(0), day.getDegrees(0));
+                }
+
+                rowsWritten++;
+                changedDates.add(weatherDate);
+            }
+
+            /* Prune the days that are behind us, remembering which dates we removed */
+            for (int i = 0; i < storedRows.size(); i++) {
+                long storedDate = storedRows.getDate(i);
+                if (storedDate < firstDayToKeep) {
+                    changedDates.add(storedDate);
+                }
+            }
+            db.delete(WeatherEntry.TABLE_NAME,
+                    WeatherEntry.COLUMN_LOCATION_KEY + " = ? AND "
+                            + WeatherEntry.COLUMN_DATE + " < ? ",
+                    new String[]{locationKey, Long.toString(firstDayToKeep)});
+
+            db.setTransactionSuccessful();
+        } finally {
+            batchWriter.close();
+            db.endTransaction();
+            ReaderWaitStats.endWrite();
+        }
+
+        for (long changedDate : changedDates) {
+            notifyChange(WeatherEntry.buildWeatherUriForLocationWithDate(locationKey, changedDate));
+        }
+        /* The sync was a single transaction, so there is nothing more to wait for */
+        flushChangesIfNotInBatch();
+
+        return rowsWritten;
+    }
+
+    /**
+     * Reads every row stored for a location, with every column an incremental sync compares.
+     */
+    private static ForecastSnapshot readStoredRows(SQLiteDatabase db, String locationKey) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, ForecastSnapshot.SNAPSHOT_PROJECTION,
+                WeatherEntry.COLUMN_LOCATION_KEY + " = ? ", new String[]{locationKey},
+                null, null, null);
+        try {
+            return ForecastSnapshot.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns true if every column of the incoming day holds the same value as the stored row.
+     */
+    private static boolean isSameWeather(ForecastSnapshot storedRows, int storedIndex,
+                                         ForecastBatch incomingDay) {
+        return storedRows.getWeatherId(storedIndex) == incomingDay.getWeatherId(0)
+                && Double.compare(storedRows.getMinTemp(storedIndex),
+                        incomingDay.getMinTemp(0)) == 0
+                && Double.compare(storedRows.getMaxTemp(storedIndex),
+                        incomingDay.getMaxTemp(0)) == 0
+                && Double.compare(storedRows.getHumidity(storedIndex),
+                        incomingDay.getHumidity(0)) == 0
+                && Double.compare(storedRows.getPressure(storedIndex),
+                        incomingDay.getPressure(0)) == 0
+                && Double.compare(storedRows.getWindSpeed(storedIndex),
+                        incomingDay.getWindSpeed(0)) == 0
+                && Double.compare(storedRows.getDegrees(storedIndex),
+                        incomingDay.getDegrees(0)) == 0;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -197,6 +404,10 @@ public class WeatherProvider extends ContentProvider {
 
         Cursor cursor;
 
+        /* If a sync is writing right now, we want to know how long this query has to wait */
+        boolean duringWrite = ReaderWaitStats.isWriteInProgress();
+        long startNanos = System.nanoTime();
+
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
@@ -221,17 +432,14 @@ public class WeatherProvider extends ContentProvider {
                 /*
                  * In order to determine the date associated with this URI, we look at the last
                  * path segment. In the comment above, the last path segment is 1472214172 and
-                 * represents the number of seconds since the epoch, or UTC time.
-                 */
-                String normalizedUtcDateString = uri.getLastPathSegment();
-
-                /*
+                 * represents the number of seconds since the epoch, or UTC time. The location is
+                 * the user's own, unless the URI names another one.
+                 *
                  * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * than one "?" in the selection statement. We have one for the location and one
+                 * for the date, in that order.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
+                String[] selectionArguments = scopeSelectionArgs(uri, null, true);
 
                 cursor = mOpenHelper.getReadableDatabase().query(
                         /* Table we are going to query */
@@ -246,13 +454,13 @@ public class WeatherProvider extends ContentProvider {
                         /*
                          * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
                          * of it. We extract that date and use it with these next two lines to
-                         * specify the row of weather we want returned in the cursor. We use a
-                         * question mark here and then designate selectionArguments as the next
+                         * specify the row of weather we want returned in the cursor. We use
+                         * question marks here and then designate selectionArguments as the next
                          * argument for performance reasons. Whatever Strings are contained
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        scopeSelection(null, true),
                         selectionArguments,
                         null,
                         null,
@@ -270,14 +478,14 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * in our weather table for the user's location, or for the location in the URI.
              */
             case CODE_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
-                        selection,
-                        selectionArgs,
+                        scopeSelection(selection, false),
+                        scopeSelectionArgs(uri, selectionArgs, false),
                         null,
                         null,
                         sortOrder);
@@ -289,6 +497,12 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
+        if (duringWrite) {
+            /* SQLite only runs the query once the first window is filled, which getCount does */
+            cursor.getCount();
+            ReaderWaitStats.recordRead(System.nanoTime() - startNanos);
+        }
+
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -321,8 +535,16 @@ public class WeatherProvider extends ContentProvider {
             case CODE_WEATHER:
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
                         WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                        scopeSelection(selection, false),
+                        scopeSelectionArgs(uri, selectionArgs, false));
+
+                break;
+
+            case CODE_WEATHER_WITH_DATE:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        scopeSelection(selection, true),
+                        scopeSelectionArgs(uri, selectionArgs, true));
 
                 break;
 
@@ -332,7 +554,7 @@ public class WeatherProvider extends ContentProvider {
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numRowsDeleted;
@@ -354,25 +576,211 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts a single day of weather for the location in the URI. Like
+     * {@link #bulkInsert(Uri, ContentValues[])}, this replaces any day already stored for the
+     * same date and location.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the inserted day, as built by
+     * {@link WeatherEntry#buildWeatherUriForLocationWithDate(String, long)}
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                Long weatherDate = values.getAsLong(WeatherEntry.COLUMN_DATE);
+                if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                String locationKey = WeatherEntry.getLocationKeyFromUri(uri);
+                ContentValues locatedValues = new ContentValues(values);
+                locatedValues.put(WeatherEntry.COLUMN_LOCATION_KEY, locationKey);
+
+                long _id = mOpenHelper.getWritableDatabase()
+                        .insert(WeatherEntry.TABLE_NAME, null, locatedValues);
+                if (_id == -1) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+
+                Uri insertedUri =
+                        WeatherEntry.buildWeatherUriForLocationWithDate(locationKey, weatherDate);
+                notifyChange(insertedUri);
+                return insertedUri;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
+    /**
+     * Updates existing days of weather of the location in the URI. A URI that ends in a date
+     * only updates that day, and the selection, if any, is applied on top of it.
+     *
+     * @param uri           The URI of the rows to update
+     * @param values        The column_name/value pairs to change
+     * @param selection     An optional restriction to apply to rows when updating
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+        if (values.containsKey(WeatherEntry.COLUMN_LOCATION_KEY)) {
+            throw new IllegalArgumentException("Weather can't be moved to another location");
+        }
+        if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            Long weatherDate = values.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to update");
+            }
+        }
+
+        int numRowsUpdated;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherEntry.TABLE_NAME,
+                        values,
+                        scopeSelection(selection, false),
+                        scopeSelectionArgs(uri, selectionArgs, false));
+
+                break;
+
+            case CODE_WEATHER_WITH_DATE:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherEntry.TABLE_NAME,
+                        values,
+                        scopeSelection(selection, true),
+                        scopeSelectionArgs(uri, selectionArgs, true));
+
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (numRowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        return numRowsUpdated;
+    }
+
+    /**
+     * Applies every operation in a single transaction: either all of them are applied, or, if
+     * one of them fails, none are. Observers are notified once, after the transaction commits,
+     * rather than once per operation (see {@link WeatherChangeNotifier}).
+     *
+     * @param operations The operations to apply
+     * @return The result of each operation, in order
+     * @throws OperationApplicationException If any operation fails
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        /* A batch within a batch simply joins the outer batch's transaction and notification */
+        if (mBatchChangedUris.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+
+        mBatchChangedUris.set(changedUris);
+        ReaderWaitStats.beginWrite();
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            ReaderWaitStats.endWrite();
+            mBatchChangedUris.remove();
+        }
+
+        for (Uri changedUri : changedUris) {
+            invalidateSnapshotIfPrimary(changedUri);
+            mChangeNotifier.notifyChange(changedUri);
+        }
+        mChangeNotifier.flush();
+
+        return results;
+    }
+
+    /**
+     * Hands a changed URI to the {@link WeatherChangeNotifier}, unless we are inside
+     * {@link #applyBatch(ArrayList)}, in which case the change waits for the batch to commit.
+     * Every write path calls this once its rows are committed.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChangedUris = mBatchChangedUris.get();
+        if (batchChangedUris != null) {
+            batchChangedUris.add(uri);
+        } else {
+            invalidateSnapshotIfPrimary(uri);
+            mChangeNotifier.notifyChange(uri);
+        }
+    }
+
+    /*
+     * The snapshot cache holds the primary location's rows, so any committed change to them
+     * makes it stale, including one from a sync for a location the user has since left. Other
+     * locations never end up in the cache.
+     */
+    private static void invalidateSnapshotIfPrimary(Uri uri) {
+        if (WeatherEntry.PRIMARY_LOCATION_KEY.equals(WeatherEntry.getLocationKeyFromUri(uri))) {
+            ForecastSnapshotCache.invalidate();
+        }
+    }
+
+    /*
+     * Called at the end of a multi-row transaction. Its changes are complete, so observers can
+     * hear about them right away rather than after the coalescing window.
+     */
+    private void flushChangesIfNotInBatch() {
+        if (mBatchChangedUris.get() == null) {
+            mChangeNotifier.flush();
+        }
+    }
+
+    /*
+     * Restricts a selection to the location of the URI and, for a CODE_WEATHER_WITH_DATE URI, to
+     * the date at its end. Their "?"s come last, location first, so scopeSelectionArgs adds
+     * their arguments last as well.
+     */
+    private static String scopeSelection(String selection, boolean withDate) {
+        String scope = WeatherEntry.COLUMN_LOCATION_KEY + " = ? ";
+        if (withDate) {
+            scope += "AND " + WeatherEntry.COLUMN_DATE + " = ? ";
+        }
+        if (TextUtils.isEmpty(selection)) {
+            return scope;
+        }
+        return "(" + selection + ") AND " + scope;
+    }
+
+    private static String[] scopeSelectionArgs(Uri uri, String[] selectionArgs,
+                                               boolean withDate) {
+        int callerArgCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] scopedArgs = new String[callerArgCount + (withDate ? 2 : 1)];
+        if (callerArgCount > 0) {
+            System.arraycopy(selectionArgs, 0, scopedArgs, 0, callerArgCount);
+        }
+        scopedArgs[callerArgCount] = WeatherEntry.getLocationKeyFromUri(uri);
+        if (withDate) {
+            scopedArgs[callerArgCount + 1] = uri.getLastPathSegment();
+        }
+        return scopedArgs;
     }
 
     /**
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.CancellationSignal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands out a {@link CancellationSignal} of its own to every fetch of one sync, and cancels all
+ * of them when the sync's signal is cancelled.
+ * <p>
+ * A CancellationSignal only holds one OnCancelListener. NetworkUtils uses it to disconnect the
+ * request it is waiting on, so fetches that run at the same time, like the user's own location
+ * and the tracked ones, would take each other's listener away if they shared a signal, and only
+ * the last one to start would be disconnected.
+ */
+final class CancellationFanOut {
+
+    private final CancellationSignal mParent;
+    private final List<CancellationSignal> mChildren = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param parent The sync's signal. Its listener belongs to this until {@link #close()}.
+     */
+    CancellationFanOut(CancellationSignal parent) {
+        mParent = parent;
+        mParent.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                for (CancellationSignal child : mChildren) {
+                    child.cancel();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A signal for one fetch, cancelled along with the sync's signal. It is cancelled
+     * already if the sync's signal is.
+     */
+    CancellationSignal newChild() {
+        CancellationSignal child = new CancellationSignal();
+        mChildren.add(child);
+        /* The sync may have been cancelled before the child was added; cancelling twice is fine */
+        if (mParent.isCanceled()) {
+            child.cancel();
+        }
+        return child;
+    }
+
+    /**
+     * Lets go of the sync's signal, once every fetch is done.
+     */
+    void close() {
+        mParent.setOnCancelListener(null);
+        mChildren.clear();
+    }
+}
@@ -15,9 +15,6 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.Context;
-import android.os.AsyncTask;
-
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
@@ -26,7 +23,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private SunshineSyncCoordinator.SyncRequest mSyncRequest;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,22 +38,20 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
-
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
-            }
-        };
-
-        mFetchWeatherTask.execute();
+        /*
+         * The sync runs on the coordinator's thread, and the listener hears about it exactly
+         * once, so the job is finished exactly once. A cancelled job is not finished here; the
+         * dispatcher has stopped it already.
+         */
+        mSyncRequest = SunshineSyncCoordinator.requestSync(this,
+                new SunshineSyncCoordinator.OnSyncFinishedListener() {
+                    @Override
+                    public void onSyncFinished(int result) {
+                        if (result != SunshineSyncTask.RESULT_CANCELLED) {
+                            jobFinished(jobParameters, false);
+                        }
+                    }
+                });
         return true;
     }
 
@@ -70,8 +65,9 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        /* Stops the download, or the sync before it writes anything, if nobody else waits */
+        if (mSyncRequest != null) {
+            mSyncRequest.cancel();
         }
         return true;
     }
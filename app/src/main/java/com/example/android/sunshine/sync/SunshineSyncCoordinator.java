@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.CancellationSignal;
+
+import com.example.android.sunshine.utilities.SyncTimings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Runs every weather sync in the app on one background thread, one sync at a time, however many
+ * parts of the app ask for one.
+ * <p>
+ * The periodic job, the start-up check, the settings screen and the watch face all ask for
+ * syncs, and the watch face asks every time it starts. A request that comes in while a sync is
+ * waiting to run doesn't start another one; it joins that sync and shares its result. A sync
+ * that is already running may have read the location before the request was made, for example
+ * by the settings screen after the user picked a new one, so a request that comes in then gets
+ * one follow-up sync instead, which every other request until it starts joins as well.
+ * <p>
+ * Every request can be cancelled. A sync is only cancelled once every request that joined it has
+ * been, and then stops at its next chance (see SunshineSyncTask#syncWeather). Each request hears
+ * about the result exactly once, through its {@link OnSyncFinishedListener}.
+ * <p>
+ * A watch asking for the weather doesn't need the network at all if a sync finished within the
+ * last {@link #FRESH_FOR_WEAR_MILLIS}. It is answered from the database instead.
+ * <p>
+ * How many requests were executed, coalesced into another sync or answered from the database is
+ * counted, see {@link #getSummary()}. How long each stage of every sync took is logged as well.
+ * <p>
+ * Every sync also refreshes the locations the user tracks besides their own, in parallel with
+ * the user's own location (see {@link TrackedLocationsSyncTask}). The result a request hears is
+ * that of the user's own location.
+ */
+public final class SunshineSyncCoordinator {
+
+    /* Kept apart from the default SharedPreferences, which hold the user's settings */
+    private static final String PREFS_NAME = "sync_state";
+    private static final String KEY_LAST_SYNC_TIME = "last_sync_time";
+
+    /* Weather this recent is what a sync would most likely bring anyway */
+    private static final long FRESH_FOR_WEAR_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Object sLock = new Object();
+
+    /*
+     * The sync new requests join: one that is waiting for the sync thread and hasn't started
+     * yet. Null while none is waiting. Guarded by sLock
+     */
+    private static SyncRun sPendingRun;
+
+    private static int sRequests;
+    private static int sExecuted;
+    private static int sCoalesced;
+    private static int sAnsweredLocally;
+
+    private SunshineSyncCoordinator() {
+    }
+
+    public interface OnSyncFinishedListener {
+        /**
+         * Called once for every request: on the sync thread when the sync is done, or on the
+         * thread that cancelled the request.
+         *
+         * @param result One of SunshineSyncTask's RESULT_ constants
+         */
+        void onSyncFinished(int result);
+    }
+
+    /**
+     * A request for a sync, as handed out by {@link #requestSync}.
+     */
+    public static final class SyncRequest {
+        private final SyncRun mRun;
+        private final OnSyncFinishedListener mListener;
+        /* Guarded by sLock */
+        private boolean mFinished;
+
+        private SyncRequest(SyncRun run, OnSyncFinishedListener listener) {
+            mRun = run;
+            mListener = listener;
+        }
+
+        /**
+         * Gives up on the sync. The listener hears {@link SunshineSyncTask#RESULT_CANCELLED}
+         * right away, unless it has heard the result already. The sync itself is cancelled if
+         * nobody else is waiting for it.
+         */
+        public void cancel() {
+            CancellationSignal abandonedSignal = null;
+            synchronized (sLock) {
+                if (mFinished) {
+                    return;
+                }
+                mFinished = true;
+                mRun.mRequests.remove(this);
+                if (mRun.mRequests.isEmpty()) {
+                    if (sPendingRun == mRun) {
+                        sPendingRun = null;
+                    }
+                    abandonedSignal = mRun.mCancellationSignal;
+                }
+            }
+            /*
+             * Cancelling runs the signal's listeners on this thread, which is often the main
+             * thread (see SunshineFirebaseJobService#onStopJob), so it mustn't hold up every
+             * other request waiting for sLock.
+             */
+            if (abandonedSignal != null) {
+                abandonedSignal.cancel();
+            }
+            mListener.onSyncFinished(SunshineSyncTask.RESULT_CANCELLED);
+        }
+    }
+
+    /* One sync, and the requests waiting for it */
+    private static final class SyncRun {
+        final CancellationSignal mCancellationSignal = new CancellationSignal();
+        final List<SyncRequest> mRequests = new ArrayList<>();
+    }
+
+    /**
+     * Asks for a sync without waiting for it.
+     *
+     * @param context  Used to run the sync
+     * @param listener Hears the result once
+     * @return The request, for cancelling it
+     */
+    public static SyncRequest requestSync(Context context, OnSyncFinishedListener listener) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (sLock) {
+            sRequests++;
+            SyncRun run = sPendingRun;
+            if (run != null) {
+                sCoalesced++;
+            } else {
+                /*
+                 * If a sync is running, this one is its follow-up. The sync thread runs one at
+                 * a time, so it only starts once the running one is done.
+                 */
+                run = new SyncRun();
+                sPendingRun = run;
+                final SyncRun newRun = run;
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runSync(appContext, newRun);
+                    }
+                });
+            }
+            SyncRequest request = new SyncRequest(run, listener);
+            run.mRequests.add(request);
+            return request;
+        }
+    }
+
+    /**
+     * Syncs the weather, or waits for the sync that is already going to. Blocks, so call it on
+     * a background thread. Interrupting the thread cancels the request.
+     *
+     * @param context Used to run the sync
+     * @return One of SunshineSyncTask's RESULT_ constants
+     */
+    public static int syncWeather(Context context) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] result = new int[1];
+        SyncRequest request = requestSync(context, new OnSyncFinishedListener() {
+            @Override
+            public void onSyncFinished(int syncResult) {
+                result[0] = syncResult;
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            request.cancel();
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    /**
+     * Answers a watch that asked for the weather. The weather in the database is sent right away
+     * if it is recent enough, otherwise after a sync. Either way the watch gets an answer, even
+     * if it is the same weather the phone sent it before. Blocks, so call it on a background
+     * thread.
+     *
+     * @param context Used to run the sync and to reach the watch
+     */
+    public static void syncWeatherForWear(Context context) {
+        if (isFreshForWear(context)) {
+            synchronized (sLock) {
+                sRequests++;
+                sAnsweredLocally++;
+            }
+            Timber.d("SunshineSyncCoordinator:syncWeatherForWear: fresh, %s", getSummary());
+        } else if (syncWeather(context) == SunshineSyncTask.RESULT_CANCELLED) {
+            return;
+        }
+        /*
+         * A sync that found nothing new sends nothing, which would leave the watch without an
+         * answer. After a sync that did send, this put usually replaces that one while it is
+         * still queued in the WearChannel; at worst the watch hears the same weather twice.
+         */
+        SunshineSyncTask.sendStoredWeatherToWear(context);
+    }
+
+    /**
+     * @return The counters, in a single line suitable for the log
+     */
+    public static String getSummary() {
+        synchronized (sLock) {
+            return sRequests + " sync requests, " + sExecuted + " executed, "
+                    + sCoalesced + " coalesced, " + sAnsweredLocally + " answered locally";
+        }
+    }
+
+    /* Runs on the sync thread */
+    private static void runSync(Context context, SyncRun run) {
+        synchronized (sLock) {
+            /* Requests from now on may come too late for this sync, so they get a new one */
+            if (sPendingRun == run) {
+                sPendingRun = null;
+            }
+        }
+
+        int result = SunshineSyncTask.RESULT_CANCELLED;
+        SyncTimings timings = new SyncTimings();
+        if (!run.mCancellationSignal.isCanceled()) {
+            /* Every fetch gets a signal of its own, see CancellationFanOut */
+            CancellationFanOut cancellation = new CancellationFanOut(run.mCancellationSignal);
+            try {
+                List<Future<Integer>> trackedRefreshes =
+                        TrackedLocationsSyncTask.startRefresh(context, cancellation);
+                result = SunshineSyncTask.syncWeather(
+                        context, cancellation.newChild(), timings);
+                TrackedLocationsSyncTask.awaitRefresh(trackedRefreshes);
+            } finally {
+                cancellation.close();
+                synchronized (sLock) {
+                    sExecuted++;
+                }
+            }
+        }
+
+        if (result == SunshineSyncTask.RESULT_STORED
+                || result == SunshineSyncTask.RESULT_UNCHANGED) {
+            getPreferences(context).edit()
+                    .putLong(KEY_LAST_SYNC_TIME, System.currentTimeMillis())
+                    .apply();
+        }
+        Timber.d("SunshineSyncCoordinator:runSync: result %d, %s; %s",
+                result, timings.getSummary(), getSummary());
+
+        List<SyncRequest> finished;
+        synchronized (sLock) {
+            finished = new ArrayList<>(run.mRequests);
+            run.mRequests.clear();
+            for (SyncRequest request : finished) {
+                request.mFinished = true;
+            }
+        }
+        for (SyncRequest request : finished) {
+            request.mListener.onSyncFinished(result);
+        }
+    }
+
+    private static boolean isFreshForWear(Context context) {
+        long lastSyncTime = getPreferences(context).getLong(KEY_LAST_SYNC_TIME, 0);
+        long sinceLastSync = System.currentTimeMillis() - lastSyncTime;
+        /* A negative age means the clock was set back, so don't trust it */
+        return sinceLastSync >= 0 && sinceLastSync < FRESH_FOR_WEAR_MILLIS;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
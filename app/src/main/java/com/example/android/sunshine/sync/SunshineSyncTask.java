@@ -15,37 +15,104 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.Nullable;
 import android.text.format.DateUtils;
 
 import com.example.android.sunshine.ConnectWearUtils;
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastPipe;
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastSnapshotCache;
+import com.example.android.sunshine.data.ReaderWaitStats;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherChangeNotifier;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
 import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.NotModifiedException;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SyncTimings;
+import com.example.android.sunshine.utilities.WeatherResponseCache;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import timber.log.Timber;
 
 public class SunshineSyncTask {
 
+    /* Results of syncWeather */
+    public static final int RESULT_FAILED = 0;
+    public static final int RESULT_UNCHANGED = 1;
+    public static final int RESULT_STORED = 2;
+    public static final int RESULT_CANCELLED = 3;
+
+    /*
+     * Selects how the forecast response is parsed. The streaming parser decodes the response
+     * token by token straight into a ForecastBatch as it comes off the network. Setting this to
+     * false falls back to reading the whole response into a String and parsing it with
+     * JSONObject, which is handy when comparing the two.
+     */
+    private static final boolean USE_STREAMING_PARSER = true;
+
+    /*
+     * How many parsed days may wait for the database writer. The forecast is two weeks, so this
+     * keeps the parser a few days ahead without ever holding the whole forecast in the pipe.
+     */
+    private static final int PIPE_CAPACITY = 4;
+
+    /*
+     * The writer stage, which takes days from the parser while it is still parsing, and the wear
+     * stage, which pushes to the watch while the notification is being built. Each sync uses
+     * them once, and syncs run one at a time, so one thread each is all they need.
+     */
+    private static final ExecutorService sWriterExecutor = Executors.newSingleThreadExecutor();
+    private static final ExecutorService sWearExecutor = Executors.newSingleThreadExecutor();
+
+    /* The columns WearForecastPayload sends to the watch face */
+    private static final String[] WEARABLE_FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * Everything in the app goes through {@link SunshineSyncCoordinator}, which runs every sync
+     * on its own thread, one at a time.
+     * <p>
+     * Cancelling stops the sync while it is talking to the server and right before it writes to
+     * the database. Once the new weather is stored, the notification and the watch are brought
+     * up to date with it regardless, so they never disagree with the database.
      *
-     * @param context Used to access utility methods and the ContentResolver
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Cancels the sync, or null
+     * @param timings            Gets every stage of the sync started in turn
+     * @return {@link #RESULT_STORED} if new weather was stored, {@link #RESULT_UNCHANGED} if the
+     * weather we have is still current, {@link #RESULT_CANCELLED} or {@link #RESULT_FAILED}
      */
-    synchronized public static void syncWeather(Context context) {
+    static int syncWeather(Context context, @Nullable CancellationSignal cancellationSignal,
+                           SyncTimings timings) {
         Timber.d("SunshineSyncTask:syncWeather: ");
         try {
             /*
@@ -55,90 +122,328 @@ public class SunshineSyncTask {
              */
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
-
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
-
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Only stored once the new weather is in the database, so that a write that fails
+             * or is cancelled leaves the next request unconditional.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            WeatherResponseCache.Validators validators = new WeatherResponseCache.Validators();
+
+            int notificationsBefore = WeatherChangeNotifier.getNotificationsFired();
 
+            timings.start(SyncTimings.STAGE_FETCH);
+            if (USE_STREAMING_PARSER) {
                 /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
-                 * we should notify the user that the weather has been refreshed.
+                 * Parse the JSON into a batch of weather values while it is being downloaded,
+                 * and write each day while the next ones are still coming in.
                  */
-                boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+                ForecastBatch forecastBatch = downloadAndStore(
+                        context, weatherRequestUrl, cancellationSignal, timings, validators);
+                if (forecastBatch == null) {
+                    return RESULT_FAILED;
+                }
+            } else {
+                /* Use the URL to retrieve the JSON */
+                String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(
+                        context, weatherRequestUrl, cancellationSignal, validators);
+
+                /* Parse the JSON into a list of weather values */
+                timings.start(SyncTimings.STAGE_PARSE);
+                ContentValues[] weatherValues = OpenWeatherJsonUtils
+                        .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
 
                 /*
-                 * If the last notification was shown was more than 1 day ago, we want to send
-                 * another notification to the user that the weather has been updated. Remember,
-                 * it's important that you shouldn't spam your users with notifications.
+                 * In cases where our JSON contained an error code,
+                 * getWeatherContentValuesFromJson would have returned null. We need to check for
+                 * those cases here to prevent any NullPointerExceptions being thrown. We also
+                 * have no reason to insert fresh data if there isn't any to insert.
                  */
-                long timeSinceLastNotification = SunshinePreferences
-                        .getEllapsedTimeSinceLastNotification(context);
-
-                boolean oneDayPassedSinceLastNotification = false;
+                if (weatherValues == null || weatherValues.length == 0) {
+                    return RESULT_FAILED;
+                }
 
-                if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
-                    oneDayPassedSinceLastNotification = true;
+                /* The last chance to stop; the write below is all or nothing */
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
                 }
+                timings.start(SyncTimings.STAGE_WRITE);
 
                 /*
-                 * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
+                 * Merge our new weather data into Sunshine's ContentProvider. Only new or
+                 * changed days are written, and only days in the past are deleted.
                  */
-                if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
-                }
+                int rowsChanged = context.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                        weatherValues);
+                Timber.d("SunshineSyncTask:syncWeather: %d rows changed", rowsChanged);
+            }
+            WeatherResponseCache.store(context, validators);
+            Timber.d("SunshineSyncTask:syncWeather: %d change notifications",
+                    WeatherChangeNotifier.getNotificationsFired() - notificationsBefore);
+
+            /*
+             * Everyone in this process can now read the new forecast without a query. It is read
+             * back from the database rather than built from the response, which may hold days
+             * WeatherProvider skipped and lack days it kept. If anything writes the weather
+             * while we read it, the cache stays empty rather than take an outdated snapshot.
+             */
+            long snapshotGeneration = ForecastSnapshotCache.getGeneration();
+            ForecastSnapshot storedForecast = queryStoredForecast(context);
+            ForecastSnapshotCache.set(storedForecast, snapshotGeneration);
+
+            /* The notification and the watch don't depend on each other, so update both at once */
+            Future<?> wearPush = pushToWearInBackground(context, storedForecast, timings);
+            timings.start(SyncTimings.STAGE_NOTIFY);
+            notifyUserIfDue(context);
+            timings.stop();
+            awaitWearPush(wearPush);
 
-                retrieveDataForWearable(context, weatherValues);
             /* If the code reaches this point, we have successfully performed our sync */
 
-            }
+            /* How long did the list, detail screen and notification wait on our write? */
+            Timber.d("SunshineSyncTask:syncWeather: %s", ReaderWaitStats.takeSummary());
+
+            return RESULT_STORED;
 
+        } catch (NotModifiedException e) {
+            /* The weather in our database is still current, so there is nothing to store */
+            Timber.d("SunshineSyncTask:syncWeather: %s", e.getMessage());
+            return RESULT_UNCHANGED;
+        } catch (OperationCanceledException e) {
+            Timber.d("SunshineSyncTask:syncWeather: cancelled");
+            return RESULT_CANCELLED;
         } catch (Exception e) {
+            /* Cancelling disconnects from the server, which shows up here as an IOException */
+            if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                Timber.d("SunshineSyncTask:syncWeather: cancelled");
+                return RESULT_CANCELLED;
+            }
             /* Server probably invalid */
             e.printStackTrace();
+        } finally {
+            timings.stop();
+        }
+        return RESULT_FAILED;
+    }
+
+    /**
+     * Downloads the forecast, parses it as it comes in and hands every parsed day to the writer
+     * thread right away, through a {@link ForecastPipe} that holds at most
+     * {@link #PIPE_CAPACITY} days. WeatherProvider writes them in one transaction, which only
+     * commits once the whole response has been parsed and found to be usable, so a response that
+     * breaks off halfway leaves the database as it was.
+     * <p>
+     * If WeatherProvider isn't running in our own process, the forecast is parsed completely and
+     * then written through the ContentResolver instead.
+     *
+     * @param validators Gets the response's validators; the caller stores them once this has
+     *                   returned the forecast, which means it has been written
+     * @return The forecast that was stored, or null if the server sent an error instead of a
+     * forecast, in which case nothing was written
+     * @throws NotModifiedException If the weather we already have is current
+     * @throws IOException          Related to network access and parsing
+     */
+    @Nullable
+    private static ForecastBatch downloadAndStore(Context context, URL weatherRequestUrl,
+                                                  @Nullable CancellationSignal cancellationSignal,
+                                                  SyncTimings timings,
+                                                  WeatherResponseCache.Validators validators)
+            throws IOException {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IOException("WeatherProvider is not available");
+        }
+
+        try {
+            ContentProvider localProvider = client.getLocalContentProvider();
+            if (!(localProvider instanceof WeatherProvider)) {
+                ForecastBatch parsedBatch = NetworkUtils.getForecastBatchFromHttpUrl(
+                        context, weatherRequestUrl, cancellationSignal, timings, validators);
+                if (parsedBatch == null || parsedBatch.isEmpty()) {
+                    return null;
+                }
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
+                timings.start(SyncTimings.STAGE_WRITE);
+                int rowsChanged = context.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
+                        parsedBatch.toContentValues());
+                Timber.d("SunshineSyncTask:downloadAndStore: %d rows changed", rowsChanged);
+                return parsedBatch;
+            }
+
+            final WeatherProvider weatherProvider = (WeatherProvider) localProvider;
+            final ForecastPipe pipe = new ForecastPipe(PIPE_CAPACITY);
+            Future<Integer> write = sWriterExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return weatherProvider.syncWeather(pipe);
+                }
+            });
+
+            ForecastBatch parsedBatch;
+            try {
+                parsedBatch = NetworkUtils.getForecastBatchFromHttpUrl(
+                        context, weatherRequestUrl, cancellationSignal, timings, validators, pipe);
+                if (parsedBatch == null || parsedBatch.isEmpty()) {
+                    pipe.fail(new IOException("The server sent no forecast"));
+                } else {
+                    /* The last chance to stop; finishing the pipe lets the writer commit */
+                    if (cancellationSignal != null) {
+                        cancellationSignal.throwIfCanceled();
+                    }
+                    pipe.finish();
+                }
+            } catch (IOException | RuntimeException e) {
+                /* Makes the writer roll back whatever it has written so far */
+                pipe.fail(e);
+                throw e;
+            }
+
+            /* Whatever is left is the writer catching up with the parser, and the commit */
+            timings.start(SyncTimings.STAGE_WRITE);
+            try {
+                int rowsChanged = write.get();
+                Timber.d("SunshineSyncTask:downloadAndStore: %d rows changed while parsing",
+                        rowsChanged);
+                return parsedBatch;
+            } catch (ExecutionException e) {
+                if (parsedBatch == null || parsedBatch.isEmpty()) {
+                    /* The writer rolled back, as we told it to */
+                    return null;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        } finally {
+            client.release();
+        }
+    }
+
+    /*
+     * Pushes the new weather to the watch on a thread of its own, timing it as the wear stage.
+     */
+    private static Future<?> pushToWearInBackground(final Context context,
+                                                    final ForecastSnapshot storedForecast,
+                                                    final SyncTimings timings) {
+        return sWearExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                sendWeatherToWear(context, storedForecast, false);
+                timings.add(SyncTimings.STAGE_WEAR, System.nanoTime() - startNanos);
+            }
+        });
+    }
+
+    private static void awaitWearPush(Future<?> wearPush) {
+        try {
+            wearPush.get();
+        } catch (ExecutionException e) {
+            /* The weather is stored either way; the watch catches up with the next sync */
+            Timber.e(e.getCause(), "SunshineSyncTask:awaitWearPush: ");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Notifies the user that the weather has been refreshed, if they want to hear about it and
+     * haven't in the past day.
+     */
+    private static void notifyUserIfDue(Context context) {
+        boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+
+        /*
+         * If the last notification was shown was more than 1 day ago, we want to send
+         * another notification to the user that the weather has been updated. Remember,
+         * it's important that you shouldn't spam your users with notifications.
+         */
+        long timeSinceLastNotification = SunshinePreferences
+                .getEllapsedTimeSinceLastNotification(context);
+
+        boolean oneDayPassedSinceLastNotification = false;
+
+        if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
+            oneDayPassedSinceLastNotification = true;
+        }
+
+        /*
+         * We only want to show the notification if the user wants them shown and we
+         * haven't shown a notification in the past day.
+         */
+        if (notificationsEnabled && oneDayPassedSinceLastNotification) {
+            NotificationUtils.notifyUserOfNewWeather(context);
         }
     }
 
-    private static void retrieveDataForWearable(Context context, ContentValues[] weatherValues) {
+    /**
+     * Sends the weather in the database to the watch face, because the watch asked for it. The
+     * watch gets it even if the phone has sent it this weather before.
+     *
+     * @param context Used to query the ContentProvider and to reach the watch
+     */
+    static void sendStoredWeatherToWear(Context context) {
+        sendWeatherToWear(context, queryForecastForWearable(context), true);
+    }
+
+    /*
+     * The watch face shows today's weather up top and gets every day WeatherProvider holds, not
+     * only the ones in the latest response.
+     */
+    private static void sendWeatherToWear(Context context, ForecastSnapshot forecast,
+                                          boolean requestedByWatch) {
+        ForecastSnapshot fromToday =
+                forecast.startingFrom(SunshineDateUtils.getNormalizedUtcDateForToday());
+        if (fromToday.isEmpty()) {
+            Timber.d("SunshineSyncTask:sendWeatherToWear: no weather for today");
+            return;
+        }
 
-        int weatherId = weatherValues[0].getAsInteger(
-                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
-        int smallArtResourceId = SunshineWeatherUtils
-                .getSmallArtResourceIdForWeatherCondition(weatherId);
+        ConnectWearUtils.sendWeatherToWear(context, fromToday.getWeatherId(0),
+                fromToday.getMaxTemp(0), fromToday.getMinTemp(0), forecast, requestedByWatch);
+    }
 
-        Resources resources = context.getResources();
-        Bitmap smallIcon = BitmapFactory.decodeResource(
-                resources,
-                smallArtResourceId);
+    /*
+     * Every column of every day stored for the primary location, which is what the snapshot
+     * cache holds and the watch face is sent after a sync.
+     */
+    private static ForecastSnapshot queryStoredForecast(Context context) {
+        return queryForecast(context, ForecastSnapshot.SNAPSHOT_PROJECTION);
+    }
 
-        double high = weatherValues[0].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
-        double low = weatherValues[0].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
-        String highTemp = SunshineWeatherUtils.formatTemperature(context, high);
-        String lowTemp = SunshineWeatherUtils.formatTemperature(context, low);
+    /*
+     * Only what the watch face needs. The projection is covered by the forecast list index, so
+     * this doesn't touch the table.
+     */
+    private static ForecastSnapshot queryForecastForWearable(Context context) {
+        return queryForecast(context, WEARABLE_FORECAST_PROJECTION);
+    }
 
-        new ConnectWearUtils(context, smallIcon, highTemp, lowTemp);
+    private static ForecastSnapshot queryForecast(Context context, String[] projection) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                projection,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return ForecastSnapshot.empty();
+        }
+        try {
+            return ForecastSnapshot.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
     }
 }
\ No newline at end of file
@@ -21,7 +21,11 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastSnapshotCache;
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.WeatherResponseCache;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
@@ -135,19 +139,28 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
+                /*
+                 * If a sync already ran in this process, its forecast is in the snapshot cache
+                 * and we know we have data without asking the database.
+                 */
+                ForecastSnapshot cachedSnapshot = ForecastSnapshotCache.get();
+                if (cachedSnapshot != null && !cachedSnapshot.isEmpty()) return;
+
                 /* URI for every row of weather data in our weather table*/
                 Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
 
                 /*
-                 * Since this query is going to be used only as a check to see if we have any
-                 * data (rather than to display data), we just need to PROJECT the ID of each
-                 * row. In our queries where we display data, we need to PROJECT more columns
-                 * to determine what weather details need to be displayed.
+                 * We project every column the snapshot cache holds, so that this one query both
+                 * tells us whether we have any data and warms the cache for the screens that
+                 * are about to display it.
                  */
-                String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
+                String[] projectionColumns = ForecastSnapshot.SNAPSHOT_PROJECTION;
                 String selectionStatement = WeatherContract.WeatherEntry
                         .getSqlSelectForTodayOnwards();
 
+                /* Taken before the query, so that a sync that writes meanwhile wins */
+                long snapshotGeneration = ForecastSnapshotCache.getGeneration();
+
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
@@ -170,11 +183,20 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
+                    /*
+                     * The cached validators vouch for weather we no longer have, so make sure
+                     * the server sends us the full forecast again.
+                     */
+                    WeatherResponseCache.clear(context);
                     startImmediateSync(context);
+                } else {
+                    /* Dropped if the weather was written since we took the generation */
+                    ForecastSnapshotCache.set(ForecastSnapshot.fromCursor(cursor),
+                            snapshotGeneration);
                 }
 
                 /* Make sure to close the Cursor to avoid memory leaks! */
-                cursor.close();
+                if (cursor != null) cursor.close();
             }
         });
 
@@ -192,4 +214,40 @@ public class SunshineSyncUtils {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts tracking the weather of another location, next to the user's own, and syncs right
+     * away to fetch it. From then on, every sync refreshes it as well.
+     *
+     * @param context       The Context used to store the location and start the sync
+     * @param locationQuery The location, in the same form as the location preference
+     */
+    public static void startTrackingLocation(@NonNull Context context, String locationQuery) {
+        if (SunshinePreferences.addTrackedLocation(context, locationQuery)) {
+            startImmediateSync(context);
+        }
+    }
+
+    /**
+     * Stops tracking a location and deletes its weather on a background thread. The weather of
+     * the user's own location and of other tracked locations is left alone.
+     *
+     * @param context       The Context used to forget the location and delete its weather
+     * @param locationQuery The location, as it was passed to startTrackingLocation
+     */
+    public static void stopTrackingLocation(@NonNull Context context, final String locationQuery) {
+        if (!SunshinePreferences.removeTrackedLocation(context, locationQuery)) return;
+
+        final Context appContext = context.getApplicationContext();
+        Thread deleteWeather = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Uri locationUri =
+                        WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationQuery);
+                int rowsDeleted = appContext.getContentResolver().delete(locationUri, null, null);
+                Timber.d("SunshineSyncUtils:stopTrackingLocation: %d rows deleted", rowsDeleted);
+            }
+        });
+        deleteWeather.start();
+    }
+}
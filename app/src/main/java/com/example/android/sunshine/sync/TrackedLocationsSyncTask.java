@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.Nullable;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.NotModifiedException;
+import com.example.android.sunshine.utilities.WeatherResponseCache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Refreshes the weather of every location the user tracks besides their own (see
+ * {@link SunshinePreferences#getTrackedLocations(Context)}).
+ * <p>
+ * The locations are fetched in parallel, at most {@link #MAX_CONCURRENT_FETCHES} at a time, and
+ * while the user's own location is being synced, so each location the user adds costs another
+ * download but hardly any more time. Each location is refreshed on its own:
+ * <ul>
+ * <li>The request is conditional on what the server sent for that location last time (see
+ * {@link WeatherResponseCache}), so a location whose forecast hasn't changed costs a 304. This
+ * holds even for a location that matches the user's own, whose validators are kept apart.</li>
+ * <li>Only the days that changed are written, through the location's sync URI, and observers of
+ * other locations are not woken up.</li>
+ * <li>A location that fails doesn't keep the others from being stored.</li>
+ * </ul>
+ * Tracked locations neither notify the user nor go to the watch; both are about the user's own
+ * location.
+ */
+final class TrackedLocationsSyncTask {
+
+    /*
+     * Enough to keep a few downloads in flight while one waits on a slow server, without
+     * opening a connection per location when the user tracks many of them.
+     */
+    private static final int MAX_CONCURRENT_FETCHES = 3;
+
+    private static final ExecutorService sFetchExecutor =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_FETCHES);
+
+    /* Only asks whether a location has any weather stored */
+    private static final String[] STORED_WEATHER_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+    };
+
+    private TrackedLocationsSyncTask() {
+    }
+
+    /**
+     * Starts refreshing every tracked location without waiting for them.
+     *
+     * @param context      Used to run the refreshes
+     * @param cancellation Gives every refresh a signal of its own, which cancels the refresh if
+     *                     it hasn't stored its weather yet
+     * @return One pending result per tracked location, for {@link #awaitRefresh(List)}
+     */
+    static List<Future<Integer>> startRefresh(
+            final Context context, CancellationFanOut cancellation) {
+        List<String> trackedLocations = SunshinePreferences.getTrackedLocations(context);
+        List<Future<Integer>> refreshes = new ArrayList<>(trackedLocations.size());
+        for (final String locationQuery : trackedLocations) {
+            final CancellationSignal cancellationSignal = cancellation.newChild();
+            refreshes.add(sFetchExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return refreshLocation(context, locationQuery, cancellationSignal);
+                }
+            }));
+        }
+        return refreshes;
+    }
+
+    /**
+     * Waits for the refreshes started by {@link #startRefresh(Context, CancellationFanOut)} and
+     * logs how they went.
+     *
+     * @param refreshes The pending results
+     */
+    static void awaitRefresh(List<Future<Integer>> refreshes) {
+        if (refreshes.isEmpty()) {
+            return;
+        }
+
+        int[] resultCounts = new int[SunshineSyncTask.RESULT_CANCELLED + 1];
+        for (Future<Integer> refresh : refreshes) {
+            try {
+                resultCounts[refresh.get()]++;
+            } catch (ExecutionException e) {
+                Timber.e(e.getCause(), "TrackedLocationsSyncTask:awaitRefresh: ");
+                resultCounts[SunshineSyncTask.RESULT_FAILED]++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        Timber.d("TrackedLocationsSyncTask:awaitRefresh: %d locations, %d stored, "
+                        + "%d unchanged, %d failed, %d cancelled",
+                refreshes.size(),
+                resultCounts[SunshineSyncTask.RESULT_STORED],
+                resultCounts[SunshineSyncTask.RESULT_UNCHANGED],
+                resultCounts[SunshineSyncTask.RESULT_FAILED],
+                resultCounts[SunshineSyncTask.RESULT_CANCELLED]);
+    }
+
+    /*
+     * Runs on one of the fetch threads. Returns one of SunshineSyncTask's RESULT_ constants.
+     */
+    private static int refreshLocation(Context context, String locationQuery,
+                                       @Nullable CancellationSignal cancellationSignal) {
+        URL weatherRequestUrl = NetworkUtils.getUrlForTrackedLocation(locationQuery);
+        try {
+            /*
+             * A location that was only just added, or whose weather was deleted, must not be
+             * answered with a 304 for weather we no longer have.
+             */
+            if (!hasStoredWeather(context, locationQuery)) {
+                WeatherResponseCache.remove(context, locationQuery, weatherRequestUrl);
+            }
+
+            WeatherResponseCache.Validators validators = new WeatherResponseCache.Validators();
+            ForecastBatch forecastBatch = NetworkUtils.getForecastBatchForTrackedLocation(
+                    context, locationQuery, weatherRequestUrl, cancellationSignal, validators);
+            if (forecastBatch == null || forecastBatch.isEmpty()) {
+                return SunshineSyncTask.RESULT_FAILED;
+            }
+
+            /* The last chance to stop; the write below is all or nothing */
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+            }
+
+            int rowsChanged = context.getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.buildSyncUriForLocation(locationQuery),
+                    forecastBatch.toContentValues());
+            /* Only now that the weather is stored may the next request be conditional */
+            WeatherResponseCache.store(context, validators);
+            Timber.d("TrackedLocationsSyncTask:refreshLocation: %s, %d rows changed",
+                    locationQuery, rowsChanged);
+            return SunshineSyncTask.RESULT_STORED;
+
+        } catch (NotModifiedException e) {
+            return SunshineSyncTask.RESULT_UNCHANGED;
+        } catch (OperationCanceledException e) {
+            return SunshineSyncTask.RESULT_CANCELLED;
+        } catch (IOException e) {
+            /* Cancelling disconnects from the server, which shows up here as an IOException */
+            if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                return SunshineSyncTask.RESULT_CANCELLED;
+            }
+            Timber.w(e, "TrackedLocationsSyncTask:refreshLocation: %s", locationQuery);
+            return SunshineSyncTask.RESULT_FAILED;
+        }
+    }
+
+    private static boolean hasStoredWeather(Context context, String locationQuery) {
+        Uri locationUri = WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationQuery);
+        Cursor cursor = context.getContentResolver().query(
+                locationUri,
+                STORED_WEATHER_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
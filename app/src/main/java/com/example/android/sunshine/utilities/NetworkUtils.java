@@ -17,16 +17,23 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastPipe;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -35,6 +42,12 @@ public final class NetworkUtils {
 
     private static final String TAG = NetworkUtils.class.getSimpleName();
 
+    /*
+     * Disconnecting may block while the connection is shut down, and a request is usually
+     * cancelled from the main thread, so the disconnect happens here instead.
+     */
+    private static final ExecutorService sDisconnectExecutor = Executors.newCachedThreadPool();
+
     /*
      * Sunshine was originally built to use OpenWeatherMap's API. However, we wanted to provide
      * a way to much more easily test the app and provide more varied weather data. After all, in
@@ -109,6 +122,17 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Retrieves the URL to query for the weather of a location the user tracks besides their
+     * own. Tracked locations are always location queries, never coordinates.
+     *
+     * @param locationQuery The tracked location, see SunshinePreferences#getTrackedLocations
+     * @return URL to query weather service
+     */
+    public static URL getUrlForTrackedLocation(String locationQuery) {
+        return buildUrlWithLocationQuery(locationQuery);
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -162,29 +186,274 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Opens a connection to the given URL that asks the server to gzip its response. If the
+     * server has sent validators for this URL before, the request is made conditional.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
-     * @throws IOException Related to network and stream reading
+     * @param context     Used to access the {@link WeatherResponseCache}
+     * @param locationKey The location whose weather the response is for
+     * @param url         The URL to connect to
+     * @return A connection that has not been connected yet
+     * @throws NotModifiedException If the last response for this URL is still fresh
+     * @throws IOException          Related to network access
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    private static HttpURLConnection openConnection(Context context, String locationKey, URL url)
+            throws IOException {
+        if (WeatherResponseCache.isFresh(context, locationKey, url)) {
+            throw new NotModifiedException("Response for " + url + " is still fresh");
+        }
+
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        /*
+         * Once we set Accept-Encoding ourselves, HttpURLConnection stops decompressing the
+         * response for us, which is why openResponseStream has to handle gzip itself.
+         */
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        WeatherResponseCache.addValidators(context, locationKey, url, urlConnection);
+        return urlConnection;
+    }
+
+    /**
+     * Returns the body of the response, decompressing it if the server sent it gzipped.
+     *
+     * @param context       Used to access the {@link WeatherResponseCache}
+     * @param locationKey   The location whose weather the response is for
+     * @param url           The URL the connection was opened for
+     * @param urlConnection The connection to read the response of
+     * @return A stream of the response body
+     * @throws NotModifiedException If the server answered with 304 Not Modified
+     * @throws IOException          Related to network and stream reading
+     */
+    private static InputStream openResponseStream(Context context, String locationKey, URL url,
+                                                  HttpURLConnection urlConnection)
+            throws IOException {
+        if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            WeatherResponseCache.storeNotModified(context, locationKey, url, urlConnection);
+            throw new NotModifiedException("Server reports " + url + " has not changed");
+        }
+
+        InputStream in = urlConnection.getInputStream();
+        if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * This method reads the entire body of the HTTP response into a pooled buffer. The caller
+     * must close the returned body once it is done with it so that the buffer can be reused.
+     * The response's validators are not remembered.
+     *
+     * @param context Used to access the {@link WeatherResponseCache}
+     * @param url     The URL to fetch the HTTP response from.
+     * @return The body of the HTTP response
+     * @throws NotModifiedException If the weather we already have for this URL is current
+     * @throws IOException          Related to network and stream reading
+     */
+    public static ResponseBody getResponseBodyFromHttpUrl(Context context, URL url)
+            throws IOException {
+        return getResponseBodyFromHttpUrl(context, url, null, null);
+    }
+
+    /**
+     * Like {@link #getResponseBodyFromHttpUrl(Context, URL)}, but can be cancelled.
+     *
+     * @param cancellationSignal Disconnects the request when cancelled, which makes this throw
+     *                           an IOException, or null
+     * @param validators         Gets the response's validators, for the caller to store once
+     *                           it has written the weather, or null
+     */
+    public static ResponseBody getResponseBodyFromHttpUrl(
+            Context context, URL url, @Nullable CancellationSignal cancellationSignal,
+            @Nullable WeatherResponseCache.Validators validators) throws IOException {
+        /* Only the user's own location is fetched as a whole response */
+        String locationKey = WeatherEntry.PRIMARY_LOCATION_KEY;
+        HttpURLConnection urlConnection = openConnection(context, locationKey, url);
+        InputStream in = null;
+        try {
+            disconnectOnCancel(urlConnection, cancellationSignal);
+            in = openResponseStream(context, locationKey, url, urlConnection);
+
+            /* Content-Length is the compressed size for gzip, so it is only useful without it */
+            int expectedLength = urlConnection.getContentEncoding() == null
+                    ? urlConnection.getContentLength()
+                    : -1;
+
+            ResponseBody responseBody = ResponseBody.readFrom(in, expectedLength);
+            if (validators != null) {
+                validators.capture(locationKey, url, urlConnection);
+            }
+            return responseBody;
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            if (in != null) {
+                in.close();
+            }
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response. The response's validators
+     * are not remembered.
+     *
+     * @param context Used to access the {@link WeatherResponseCache}
+     * @param url     The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws NotModifiedException If the weather we already have for this URL is current
+     * @throws IOException          Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(Context context, URL url) throws IOException {
+        return getResponseFromHttpUrl(context, url, null, null);
+    }
+
+    /**
+     * Like {@link #getResponseFromHttpUrl(Context, URL)}, but can be cancelled.
+     *
+     * @param cancellationSignal Disconnects the request when cancelled, which makes this throw
+     *                           an IOException, or null
+     * @param validators         Gets the response's validators, for the caller to store once
+     *                           it has written the weather, or null
+     */
+    public static String getResponseFromHttpUrl(
+            Context context, URL url, @Nullable CancellationSignal cancellationSignal,
+            @Nullable WeatherResponseCache.Validators validators) throws IOException {
+        ResponseBody responseBody =
+                getResponseBodyFromHttpUrl(context, url, cancellationSignal, validators);
         try {
-            InputStream in = urlConnection.getInputStream();
+            if (responseBody.length() == 0) {
+                return null;
+            }
+            return responseBody.asString();
+        } finally {
+            responseBody.close();
+        }
+    }
+
+    /**
+     * This method streams the HTTP response straight into the forecast parser, without ever
+     * holding the whole response in memory as a String. The response's validators are not
+     * remembered.
+     *
+     * @param context Used by the parser to store the location's coordinates, and to access the
+     *                {@link WeatherResponseCache}
+     * @param url     The URL to fetch the HTTP response from.
+     * @return The parsed forecast, null if the server reported an error
+     * @throws NotModifiedException If the weather we already have for this URL is current
+     * @throws IOException          Related to network and stream reading
+     */
+    public static ForecastBatch getForecastBatchFromHttpUrl(Context context, URL url)
+            throws IOException {
+        return getForecastBatchFromHttpUrl(context, url, null, null, null);
+    }
+
+    /**
+     * Like {@link #getForecastBatchFromHttpUrl(Context, URL)}, but can be cancelled and timed.
+     *
+     * @param cancellationSignal Disconnects the request when cancelled, which makes this throw
+     *                           an IOException, or null
+     * @param timings            Gets the parse stage started once the response headers are in,
+     *                           or null
+     * @param validators         Gets the response's validators once it has been parsed
+     *                           successfully, for the caller to store once it has written the
+     *                           weather, or null
+     */
+    public static ForecastBatch getForecastBatchFromHttpUrl(
+            Context context, URL url, @Nullable CancellationSignal cancellationSignal,
+            @Nullable SyncTimings timings, @Nullable WeatherResponseCache.Validators validators)
+            throws IOException {
+        return getForecastBatchFromHttpUrl(
+                context, url, cancellationSignal, timings, validators, null);
+    }
+
+    /**
+     * Like {@link #getForecastBatchFromHttpUrl(Context, URL, CancellationSignal, SyncTimings,
+     * WeatherResponseCache.Validators)}, but also puts every day into the given pipe as soon as
+     * it has been parsed. See
+     * {@link OpenWeatherJsonUtils#getForecastBatchFromJson(Context, InputStream, ForecastPipe)}.
+     *
+     * @param pipe Gets every day as it is parsed, or null
+     */
+    public static ForecastBatch getForecastBatchFromHttpUrl(
+            Context context, URL url, @Nullable CancellationSignal cancellationSignal,
+            @Nullable SyncTimings timings, @Nullable WeatherResponseCache.Validators validators,
+            @Nullable ForecastPipe pipe) throws IOException {
+        return getForecastBatch(context, WeatherEntry.PRIMARY_LOCATION_KEY, url,
+                cancellationSignal, timings, validators, pipe);
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Like {@link #getForecastBatchFromHttpUrl(Context, URL, CancellationSignal, SyncTimings,
+     * WeatherResponseCache.Validators)}, but for a location the user tracks besides their own.
+     * Its coordinates aren't stored, since the stored coordinates are those of the user's own
+     * location.
+     *
+     * @param locationQuery The tracked location, which is also the key its weather is stored
+     *                      under
+     * @param url           The URL from {@link #getUrlForTrackedLocation(String)}
+     */
+    public static ForecastBatch getForecastBatchForTrackedLocation(
+            Context context, String locationQuery, URL url,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable WeatherResponseCache.Validators validators) throws IOException {
+        return getForecastBatch(
+                context, locationQuery, url, cancellationSignal, null, validators, null);
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    private static ForecastBatch getForecastBatch(
+            Context context, String locationKey, URL url,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable SyncTimings timings, @Nullable WeatherResponseCache.Validators validators,
+            @Nullable ForecastPipe pipe) throws IOException {
+        boolean storeCoordinates = WeatherEntry.PRIMARY_LOCATION_KEY.equals(locationKey);
+        HttpURLConnection urlConnection = openConnection(context, locationKey, url);
+        InputStream in = null;
+        try {
+            disconnectOnCancel(urlConnection, cancellationSignal);
+            in = openResponseStream(context, locationKey, url, urlConnection);
+            if (timings != null) {
+                timings.start(SyncTimings.STAGE_PARSE);
+            }
+            ForecastBatch forecastBatch = OpenWeatherJsonUtils.getForecastBatchFromJson(
+                    context, in, pipe, storeCoordinates);
+            if (forecastBatch != null && validators != null) {
+                validators.capture(locationKey, url, urlConnection);
             }
-            scanner.close();
-            return response;
+            return forecastBatch;
         } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            if (in != null) {
+                in.close();
+            }
             urlConnection.disconnect();
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Disconnecting from another thread makes a read that is blocked on the network fail right
+     * away, instead of when the server gets around to answering. The disconnect runs on
+     * sDisconnectExecutor, never on the thread that cancelled. If the signal has been cancelled
+     * already, this throws an OperationCanceledException before anything is sent.
+     */
+    private static void disconnectOnCancel(final HttpURLConnection urlConnection,
+                                           @Nullable CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return;
+        }
+        cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                sDisconnectExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        urlConnection.disconnect();
+                    }
+                });
+            }
+        });
+        cancellationSignal.throwIfCanceled();
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link NetworkUtils} when the weather we already have is still current, either
+ * because the server answered a conditional request with 304 Not Modified or because the last
+ * response hasn't reached its max-age yet. There is nothing to parse or store in that case.
+ */
+public class NotModifiedException extends IOException {
+
+    public NotModifiedException(String message) {
+        super(message);
+    }
+}
@@ -16,6 +16,8 @@ import android.support.v4.content.ContextCompat;
 
 import com.example.android.sunshine.DetailActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastSnapshotCache;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -54,9 +56,28 @@ public class NotificationUtils {
      */
     public static void notifyUserOfNewWeather(Context context) {
 
-        /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        /*
+         * Build the URI for today's weather in order to show up to date data in notification.
+         * Today is the date the parser gives the first day of the forecast, which is also what
+         * WeatherProvider and the main screen go by, so the snapshot and the query both find it.
+         */
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(today);
+
+        /*
+         * The sync that asks us to notify the user has just put the new forecast in the snapshot
+         * cache, so in the usual case there is no need to query for it again.
+         */
+        ForecastSnapshot snapshot = ForecastSnapshotCache.get();
+        int todayIndex = snapshot == null ? -1 : snapshot.indexOfDate(today);
+        if (todayIndex != -1) {
+            showWeatherNotification(context,
+                    todaysWeatherUri,
+                    snapshot.getWeatherId(todayIndex),
+                    snapshot.getMaxTemp(todayIndex),
+                    snapshot.getMinTemp(todayIndex));
+            return;
+        }
 
         /*
          * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
@@ -80,32 +101,51 @@ public class NotificationUtils {
             double high = todayWeatherCursor.getDouble(INDEX_MAX_TEMP);
             double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
 
-            Resources resources = context.getResources();
-            int largeArtResourceId = SunshineWeatherUtils
-                    .getLargeArtResourceIdForWeatherCondition(weatherId);
+            showWeatherNotification(context, todaysWeatherUri, weatherId, high, low);
+        }
+
+        /* Always close your cursor when you're done with it to avoid wasting resources. */
+        todayWeatherCursor.close();
+    }
+
+    /**
+     * Builds and shows the notification for today's weather.
+     *
+     * @param context          Context used to build the notification and use various Utility
+     *                         methods
+     * @param todaysWeatherUri The URI for today's weather, opened when the notification is clicked
+     * @param weatherId        ID as determined by Open Weather Map
+     * @param high             High temperature in degrees celsius
+     * @param low              Low temperature in degrees celsius
+     */
+    private static void showWeatherNotification(Context context, Uri todaysWeatherUri,
+                                                int weatherId, double high, double low) {
 
-            Bitmap largeIcon = BitmapFactory.decodeResource(
-                    resources,
-                    largeArtResourceId);
+        Resources resources = context.getResources();
+        int largeArtResourceId = SunshineWeatherUtils
+                .getLargeArtResourceIdForWeatherCondition(weatherId);
 
-            String notificationTitle = context.getString(R.string.app_name);
+        Bitmap largeIcon = BitmapFactory.decodeResource(
+                resources,
+                largeArtResourceId);
 
-            String notificationText = getNotificationText(context, weatherId, high, low);
+        String notificationTitle = context.getString(R.string.app_name);
 
-            /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
-            int smallArtResourceId = SunshineWeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
+        String notificationText = getNotificationText(context, weatherId, high, low);
 
+        /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
+        int smallArtResourceId = SunshineWeatherUtils
+                .getSmallArtResourceIdForWeatherCondition(weatherId);
 
 
 
 
-            // Create a WearableExtender to add functionality for wearables
-            NotificationCompat.WearableExtender wearableExtender =
-                    new NotificationCompat.WearableExtender()
-                    .setHintHideIcon(true)
-                    .setBackground(largeIcon);
 
+        // Create a WearableExtender to add functionality for wearables
+        NotificationCompat.WearableExtender wearableExtender =
+                new NotificationCompat.WearableExtender()
+                .setHintHideIcon(true)
+                .setBackground(largeIcon);
 
 
 
@@ -117,50 +157,47 @@ public class NotificationUtils {
 
 
 
-            /*
-             * NotificationCompat Builder is a very convenient way to build backward-compatible
-             * notifications. In order to use it, we provide a context and specify a color for the
-             * notification, a couple of different icons, the title for the notification, and
-             * finally the text of the notification, which in our case in a summary of today's
-             * forecast.
-             */
-            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
-                    .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
-                    .setSmallIcon(smallArtResourceId)
-                    .setLargeIcon(largeIcon)
-                    .setContentTitle(notificationTitle)
-                    .setContentText(notificationText)
-                    .setAutoCancel(true);
 
-            /*
-             * This Intent will be triggered when the user clicks the notification. In our case,
-             * we want to open Sunshine to the DetailActivity to display the newly updated weather.
-             */
-            Intent detailIntentForToday = new Intent(context, DetailActivity.class);
-            detailIntentForToday.setData(todaysWeatherUri);
+        /*
+         * NotificationCompat Builder is a very convenient way to build backward-compatible
+         * notifications. In order to use it, we provide a context and specify a color for the
+         * notification, a couple of different icons, the title for the notification, and
+         * finally the text of the notification, which in our case in a summary of today's
+         * forecast.
+         */
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
+                .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
+                .setSmallIcon(smallArtResourceId)
+                .setLargeIcon(largeIcon)
+                .setContentTitle(notificationTitle)
+                .setContentText(notificationText)
+                .setAutoCancel(true);
 
-            TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
-            taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
-            PendingIntent resultPendingIntent = taskStackBuilder
-                    .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+        /*
+         * This Intent will be triggered when the user clicks the notification. In our case,
+         * we want to open Sunshine to the DetailActivity to display the newly updated weather.
+         */
+        Intent detailIntentForToday = new Intent(context, DetailActivity.class);
+        detailIntentForToday.setData(todaysWeatherUri);
 
-            notificationBuilder.setContentIntent(resultPendingIntent);
+        TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
+        taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
+        PendingIntent resultPendingIntent = taskStackBuilder
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
 
-            NotificationManager notificationManager = (NotificationManager)
-                    context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationBuilder.setContentIntent(resultPendingIntent);
 
-            /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
-            notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
 
-            /*
-             * Since we just showed a notification, save the current time. That way, we can check
-             * next time the weather is refreshed if we should show another notification.
-             */
-            SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
-        }
+        /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
 
-        /* Always close your cursor when you're done with it to avoid wasting resources. */
-        todayWeatherCursor.close();
+        /*
+         * Since we just showed a notification, save the current time. That way, we can check
+         * next time the weather is refreshed if we should show another notification.
+         */
+        SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
     }
 
     /**
@@ -17,7 +17,11 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastPipe;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,6 +29,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +67,19 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * The values readDayForecast has to find in every day, one bit each. The JSONObject parser
+     * throws if any of them is missing, and so does the streaming parser.
+     */
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WIND_SPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_WEATHER_ID = 1 << 4;
+    private static final int DAY_MAX = 1 << 5;
+    private static final int DAY_MIN = 1 << 6;
+    private static final int DAY_COMPLETE = (1 << 7) - 1;
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +201,246 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building a JSONObject tree of the whole response, this walks the JSON one token at a
+     * time and writes each entry of the "list" array straight into a {@link ForecastBatch}.
+     * Nothing besides the batch itself grows with the size of the response.
+     * <p>
+     * The stream is not closed by this method; that is left to the caller that opened it.
+     *
+     * @param context      Used to store the coordinates of the city in SharedPreferences
+     * @param forecastJson JSON response from server
+     * @return A batch holding one entry per day, or null if the server reported an error
+     * @throws IOException If the stream cannot be read or does not contain the expected JSON
+     */
+    public static ForecastBatch getForecastBatchFromJson(Context context, InputStream forecastJson)
+            throws IOException {
+        return getForecastBatchFromJson(context, forecastJson, null);
+    }
+
+    /**
+     * Like {@link #getForecastBatchFromJson(Context, InputStream)}, but also puts every day into
+     * a {@link ForecastPipe} as soon as it has been read, so that it can be written while the
+     * rest of the response is still being parsed. The pipe is neither finished nor failed here;
+     * only the caller knows whether the forecast as a whole is usable.
+     *
+     * @param pipe Gets every day as it is read, or null
+     * @throws IOException Also if the pipe's reader has stopped
+     */
+    public static ForecastBatch getForecastBatchFromJson(Context context, InputStream forecastJson,
+                                                         @Nullable ForecastPipe pipe)
+            throws IOException {
+        return getForecastBatchFromJson(context, forecastJson, pipe, true);
+    }
+
+    /**
+     * Like {@link #getForecastBatchFromJson(Context, InputStream, ForecastPipe)}, but only
+     * stores the city's coordinates in SharedPreferences if asked to. They are the coordinates
+     * of the user's own location, so a forecast for a location the user merely tracks must leave
+     * them alone.
+     *
+     * @param storeCoordinates Whether this is the forecast for the user's own location
+     */
+    public static ForecastBatch getForecastBatchFromJson(Context context, InputStream forecastJson,
+                                                         @Nullable ForecastPipe pipe,
+                                                         boolean storeCoordinates)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(forecastJson, "UTF-8"));
+
+        ForecastBatch forecastBatch = new ForecastBatch();
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean hasCoordinates = false;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+
+        /* See getWeatherContentValuesFromJson for why we derive the dates ourselves */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case OWM_MESSAGE_CODE:
+                        messageCode = reader.nextInt();
+                        break;
+
+                    case OWM_CITY:
+                        double[] coordinates = readCityCoordinates(reader);
+                        if (coordinates != null) {
+                            hasCoordinates = true;
+                            cityLatitude = coordinates[0];
+                            cityLongitude = coordinates[1];
+                        }
+                        break;
+
+                    case OWM_LIST:
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            long dateTimeMillis = normalizedUtcStartDay
+                                    + SunshineDateUtils.DAY_IN_MILLIS * forecastBatch.size();
+                            readDayForecast(reader, forecastBatch, dateTimeMillis);
+                            if (pipe != null) {
+                                pipe.put(forecastBatch, forecastBatch.size() - 1);
+                            }
+                        }
+                        reader.endArray();
+                        break;
+
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            /* JsonReader reports malformed or unexpected JSON with unchecked exceptions */
+            throw new IOException("Unable to parse forecast JSON", e);
+        }
+
+        /* Is there an error? Same policy as the JSONObject parser: any non-OK code is an error */
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            return null;
+        }
+
+        if (!hasCoordinates) {
+            throw new IOException("Forecast JSON is missing the city coordinates");
+        }
+
+        if (storeCoordinates) {
+            SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+        }
+
+        return forecastBatch;
+    }
+
+    /**
+     * Reads the "city" object and returns its latitude and longitude.
+     *
+     * @return The city's latitude and longitude, or null if the "coord" object was missing
+     */
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                coordinates = new double[2];
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        coordinates[0] = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        coordinates[1] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return coordinates;
+    }
+
+    /**
+     * Reads one element of the "list" array and appends it to the batch.
+     *
+     * @throws IOException If the day is missing any of the values we store, rather than storing
+     *                     a made up 0 in its place
+     */
+    private static void readDayForecast(JsonReader reader, ForecastBatch forecastBatch,
+                                        long dateTimeMillis) throws IOException {
+        int fieldsRead = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case OWM_PRESSURE:
+                    pressure = reader.nextDouble();
+                    fieldsRead |= DAY_PRESSURE;
+                    break;
+
+                case OWM_HUMIDITY:
+                    /* JSONObject.getInt truncates fractional values, so we do the same */
+                    humidity = (int) reader.nextDouble();
+                    fieldsRead |= DAY_HUMIDITY;
+                    break;
+
+                case OWM_WINDSPEED:
+                    windSpeed = reader.nextDouble();
+                    fieldsRead |= DAY_WIND_SPEED;
+                    break;
+
+                case OWM_WIND_DIRECTION:
+                    windDirection = reader.nextDouble();
+                    fieldsRead |= DAY_WIND_DIRECTION;
+                    break;
+
+                case OWM_WEATHER:
+                    /* Only the first element of the "weather" array is of interest to us */
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = reader.nextInt();
+                                fieldsRead |= DAY_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+
+                case OWM_TEMPERATURE:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            high = reader.nextDouble();
+                            fieldsRead |= DAY_MAX;
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            low = reader.nextDouble();
+                            fieldsRead |= DAY_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fieldsRead != DAY_COMPLETE) {
+            throw new IOException("Forecast JSON is missing values for day "
+                    + forecastBatch.size());
+        }
+
+        forecastBatch.add(dateTimeMillis, weatherId, low, high,
+                humidity, pressure, windSpeed, windDirection);
+    }
+}
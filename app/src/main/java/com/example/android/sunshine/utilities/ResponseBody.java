@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The bytes of an HTTP response body, held in a buffer that is borrowed from a small pool and
+ * handed back when the body is closed. A sync reads one response every few hours, so in practice
+ * the same buffer is reused for every response instead of growing a new one each time.
+ * <p>
+ * The body can be handed to a parser with {@link #asInputStream()}, which reads straight out of
+ * the pooled buffer without copying it. Don't use a body, or any stream obtained from it, after
+ * it has been closed.
+ */
+public final class ResponseBody implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Used when the server doesn't tell us how long the response is */
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /* Buffers larger than this are left for the garbage collector rather than kept around */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    /* Sync, wear requests and the job service can overlap, so we keep a couple of buffers */
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private static final byte[][] sPool = new byte[MAX_POOLED_BUFFERS][];
+
+    private byte[] mBuffer;
+    private final int mLength;
+
+    private ResponseBody(byte[] buffer, int length) {
+        mBuffer = buffer;
+        mLength = length;
+    }
+
+    /**
+     * Reads an entire stream into a pooled buffer. The stream is not closed by this method.
+     *
+     * @param in             The stream to read from
+     * @param expectedLength The expected number of bytes (e.g. the Content-Length of the
+     *                       response), or a value <= 0 if it isn't known. Only a hint: the
+     *                       buffer starts out no larger than a pooled buffer may be, and grows
+     *                       if the stream turns out to be longer.
+     * @return The body holding every byte of the stream
+     * @throws IOException Related to stream reading
+     */
+    public static ResponseBody readFrom(InputStream in, int expectedLength) throws IOException {
+        /*
+         * Content-Length comes from the server, so don't let a bogus one allocate a huge buffer
+         * up front. A response that really is that large still gets read, by growing.
+         */
+        int initialSize = expectedLength > 0
+                ? Math.min(expectedLength, MAX_POOLED_BUFFER_SIZE)
+                : DEFAULT_BUFFER_SIZE;
+        byte[] buffer = acquireBuffer(initialSize);
+        int length = 0;
+
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    /* Only grow if there really is more to read than we expected */
+                    int next = in.read();
+                    if (next == -1) break;
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    buffer[length++] = (byte) next;
+                }
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read == -1) break;
+                length += read;
+            }
+        } catch (IOException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+
+        return new ResponseBody(buffer, length);
+    }
+
+    /**
+     * @return The number of bytes in this body
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @return A stream that reads directly from this body's buffer
+     */
+    public InputStream asInputStream() {
+        checkNotClosed();
+        return new ByteArrayInputStream(mBuffer, 0, mLength);
+    }
+
+    /**
+     * @return This body decoded as UTF-8 text
+     */
+    public String asString() {
+        checkNotClosed();
+        return new String(mBuffer, 0, mLength, UTF_8);
+    }
+
+    /**
+     * Returns this body's buffer to the pool. Calling close more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (mBuffer != null) {
+            releaseBuffer(mBuffer);
+            mBuffer = null;
+        }
+    }
+
+    private void checkNotClosed() {
+        if (mBuffer == null) {
+            throw new IllegalStateException("ResponseBody has already been closed");
+        }
+    }
+
+    private static synchronized byte[] acquireBuffer(int minSize) {
+        for (int i = 0; i < sPool.length; i++) {
+            byte[] pooled = sPool[i];
+            if (pooled != null && pooled.length >= minSize) {
+                sPool[i] = null;
+                return pooled;
+            }
+        }
+        return new byte[minSize];
+    }
+
+    private static synchronized void releaseBuffer(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) return;
+
+        /* Prefer an empty slot, otherwise replace a smaller buffer with this one */
+        int smallest = -1;
+        for (int i = 0; i < sPool.length; i++) {
+            if (sPool[i] == null) {
+                sPool[i] = buffer;
+                return;
+            }
+            if (smallest == -1 || sPool[i].length < sPool[smallest].length) {
+                smallest = i;
+            }
+        }
+        if (sPool[smallest].length < buffer.length) {
+            sPool[smallest] = buffer;
+        }
+    }
+}
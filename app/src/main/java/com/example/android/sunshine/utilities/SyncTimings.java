@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long each stage of one sync takes: waiting for the server, parsing its response,
+ * writing the weather to the database, notifying the user and pushing to the watch.
+ * <p>
+ * Starting a stage ends the one before it, so the stages can simply be marked as the sync moves
+ * along. With the streaming parser the response is parsed while it downloads; fetch is then the
+ * time until the response headers arrive, and parse the time it takes to read and parse the body.
+ * <p>
+ * Stages that run on a thread of their own, next to the others, report their time with
+ * {@link #add(int, long)} instead. A SyncTimings belongs to one sync.
+ */
+public final class SyncTimings {
+
+    public static final int STAGE_FETCH = 0;
+    public static final int STAGE_PARSE = 1;
+    public static final int STAGE_WRITE = 2;
+    public static final int STAGE_NOTIFY = 3;
+    public static final int STAGE_WEAR = 4;
+
+    private static final String[] STAGE_NAMES = {"fetch", "parse", "write", "notify", "wear"};
+
+    private final long[] mStageNanos = new long[STAGE_NAMES.length];
+
+    private int mStage = -1;
+    private long mStageStartNanos;
+
+    /**
+     * Ends the current stage, if any, and starts the given one.
+     *
+     * @param stage One of the STAGE_ constants
+     */
+    public synchronized void start(int stage) {
+        stop();
+        mStage = stage;
+        mStageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the current stage, if any.
+     */
+    public synchronized void stop() {
+        if (mStage != -1) {
+            mStageNanos[mStage] += System.nanoTime() - mStageStartNanos;
+            mStage = -1;
+        }
+    }
+
+    /**
+     * Adds time to a stage that ran on another thread.
+     *
+     * @param stage One of the STAGE_ constants
+     * @param nanos How long it took
+     */
+    public synchronized void add(int stage, long nanos) {
+        mStageNanos[stage] += nanos;
+    }
+
+    /**
+     * @return How long each stage took, in a single line suitable for the log
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (stage > 0) {
+                summary.append(", ");
+            }
+            summary.append(STAGE_NAMES[stage]).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(mStageNanos[stage])).append(" ms");
+        }
+        return summary.toString();
+    }
+}
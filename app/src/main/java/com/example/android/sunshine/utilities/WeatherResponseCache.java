@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the cache validators (ETag, Last-Modified and max-age) the weather server sent for
+ * each forecast URL, so that the next request for the same URL can be made conditional.
+ * <p>
+ * Validators vouch for the weather stored for one location, so they are kept per location key
+ * (see WeatherContract.WeatherEntry#COLUMN_LOCATION_KEY) as well as per URL. A tracked location
+ * whose query happens to match the user's own location asks for the same URL, but its rows are
+ * stored apart, so a 304 for one must not stand in for the other.
+ * <p>
+ * Only the validators are cached, not the response itself. The weather we parsed from that
+ * response already lives in the database, so when the server tells us nothing has changed
+ * there is simply nothing left to do.
+ */
+public final class WeatherResponseCache {
+
+    /* Kept apart from the default SharedPreferences, which hold the user's settings */
+    private static final String PREFS_NAME = "weather_response_cache";
+
+    private static final String KEY_PREFIX_ETAG = "etag:";
+    private static final String KEY_PREFIX_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_PREFIX_EXPIRES = "expires:";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String DIRECTIVE_MAX_AGE = "max-age=";
+    private static final String DIRECTIVE_NO_CACHE = "no-cache";
+    private static final String DIRECTIVE_NO_STORE = "no-store";
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /* A URL can't contain a space, so this can't be mistaken for another location's entry */
+    private static String entryKey(String locationKey, URL url) {
+        return locationKey + " " + url;
+    }
+
+    /**
+     * Returns true if the last response for this URL hasn't reached its max-age yet, in which
+     * case there is no need to ask the server at all.
+     *
+     * @param context     Used to access the cache
+     * @param locationKey The location the forecast is stored for
+     * @param url         The forecast URL
+     * @return true if the cached response for this URL is still fresh
+     */
+    static boolean isFresh(Context context, String locationKey, URL url) {
+        long expires = getPreferences(context)
+                .getLong(KEY_PREFIX_EXPIRES + entryKey(locationKey, url), 0);
+        return System.currentTimeMillis() < expires;
+    }
+
+    /**
+     * Adds If-None-Match and If-Modified-Since headers to the request, if we have validators
+     * for this URL.
+     *
+     * @param context       Used to access the cache
+     * @param locationKey   The location the forecast is stored for
+     * @param url           The forecast URL
+     * @param urlConnection The connection that hasn't been connected yet
+     */
+    static void addValidators(Context context, String locationKey, URL url,
+                              HttpURLConnection urlConnection) {
+        SharedPreferences sp = getPreferences(context);
+        String entryKey = entryKey(locationKey, url);
+
+        String eTag = sp.getString(KEY_PREFIX_ETAG + entryKey, null);
+        if (eTag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+        }
+
+        String lastModified = sp.getString(KEY_PREFIX_LAST_MODIFIED + entryKey, null);
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * The validators of one full response, held until the weather parsed from that response has
+     * been written. Storing them any earlier would let the next request be answered with a 304
+     * for weather that never made it into the database, if the write failed or was cancelled.
+     * <p>
+     * NetworkUtils fills these in; the sync stores them with
+     * {@link WeatherResponseCache#store(Context, Validators)} once its write has committed.
+     */
+    public static final class Validators {
+        private String mLocationKey;
+        private URL mUrl;
+        private String mCacheControl;
+        private String mETag;
+        private String mLastModified;
+
+        /**
+         * Takes the validators from the response headers of the given connection.
+         *
+         * @param locationKey   The location the forecast is stored for
+         * @param url           The forecast URL
+         * @param urlConnection The connection whose response headers to keep
+         */
+        void capture(String locationKey, URL url, HttpURLConnection urlConnection) {
+            mLocationKey = locationKey;
+            mUrl = url;
+            mCacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+            mETag = urlConnection.getHeaderField(HEADER_ETAG);
+            mLastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        }
+    }
+
+    /**
+     * Stores the validators of a full response, replacing whatever was stored for its URL. Call
+     * this only once the weather from that response is in the database.
+     *
+     * @param context    Used to access the cache
+     * @param validators The validators NetworkUtils captured. Nothing is stored if it never got
+     *                   a full response.
+     */
+    public static void store(Context context, Validators validators) {
+        if (validators.mUrl == null) {
+            return;
+        }
+        store(context, entryKey(validators.mLocationKey, validators.mUrl),
+                validators.mCacheControl, validators.mETag, validators.mLastModified, false);
+    }
+
+    /**
+     * Stores the validators from a 304 Not Modified response. Validators the server didn't
+     * repeat are kept. Nothing is written for a 304, so there is no reason to wait.
+     *
+     * @param context       Used to access the cache
+     * @param locationKey   The location the forecast is stored for
+     * @param url           The forecast URL
+     * @param urlConnection The connection whose response headers to store
+     */
+    static void storeNotModified(Context context, String locationKey, URL url,
+                                 HttpURLConnection urlConnection) {
+        store(context, entryKey(locationKey, url),
+                urlConnection.getHeaderField(HEADER_CACHE_CONTROL),
+                urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                true);
+    }
+
+    /*
+     * For a 304 Not Modified response, validators the server didn't repeat are kept; for a full
+     * response, they are replaced.
+     */
+    private static void store(Context context, String entryKey, String cacheControl,
+                              String eTag, String lastModified, boolean notModified) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+
+        if (cacheControl != null && cacheControl.contains(DIRECTIVE_NO_STORE)) {
+            removeEntry(editor, entryKey);
+            editor.apply();
+            return;
+        }
+
+        if (eTag != null) {
+            editor.putString(KEY_PREFIX_ETAG + entryKey, eTag);
+        } else if (!notModified) {
+            editor.remove(KEY_PREFIX_ETAG + entryKey);
+        }
+
+        if (lastModified != null) {
+            editor.putString(KEY_PREFIX_LAST_MODIFIED + entryKey, lastModified);
+        } else if (!notModified) {
+            editor.remove(KEY_PREFIX_LAST_MODIFIED + entryKey);
+        }
+
+        long maxAgeSeconds = parseMaxAgeSeconds(cacheControl);
+        if (maxAgeSeconds > 0) {
+            long expires = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+            editor.putLong(KEY_PREFIX_EXPIRES + entryKey, expires);
+        } else {
+            editor.remove(KEY_PREFIX_EXPIRES + entryKey);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Forgets every stored validator, which makes the next request for each URL unconditional.
+     * This is needed whenever the weather that the validators vouch for is no longer in the
+     * database.
+     *
+     * @param context Used to access the cache
+     */
+    public static void clear(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    /**
+     * Forgets the validators stored for one location's URL, which makes the next request for it
+     * unconditional. Like {@link #clear(Context)}, but for a single location's forecast.
+     *
+     * @param context     Used to access the cache
+     * @param locationKey The location the forecast is stored for
+     * @param url         The forecast URL
+     */
+    public static void remove(Context context, String locationKey, URL url) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        removeEntry(editor, entryKey(locationKey, url));
+        editor.apply();
+    }
+
+    private static void removeEntry(SharedPreferences.Editor editor, String entryKey) {
+        editor.remove(KEY_PREFIX_ETAG + entryKey);
+        editor.remove(KEY_PREFIX_LAST_MODIFIED + entryKey);
+        editor.remove(KEY_PREFIX_EXPIRES + entryKey);
+    }
+
+    /**
+     * Extracts max-age from a Cache-Control header, e.g. "public, max-age=600".
+     *
+     * @return max-age in seconds, or 0 if the response must not be considered fresh
+     */
+    private static long parseMaxAgeSeconds(String cacheControl) {
+        if (cacheControl == null || cacheControl.contains(DIRECTIVE_NO_CACHE)) {
+            return 0;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith(DIRECTIVE_MAX_AGE)) {
+                try {
+                    return Long.parseLong(directive.substring(DIRECTIVE_MAX_AGE.length()).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last weather the phone sent in a small file, so that the watch face can show it as
+ * soon as it starts instead of showing "no data" and asking the phone for a sync.
+ * <p>
+ * The file holds one {@link Record}: today's temperatures as the phone formatted them, the
+ * forecast payload exactly as it arrived, the units, and the icon as PNG. It is a couple of
+ * kilobytes, so it is read in one go when the watch face is created, before the first frame.
+ * Writes happen on a background thread and replace the whole file atomically.
+ */
+final class ForecastStore {
+
+    private static final String TAG = ForecastStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_store";
+    /* Version 2 may leave out the temperatures; files from version 1 are simply not read */
+    private static final int VERSION = 2;
+
+    /*
+     * The phone syncs every three to four hours, but only sends what changed, so weather that
+     * is a few hours old may well still be current. Half a day without anything from the phone
+     * means we missed something, and it is worth asking for a sync.
+     */
+    private static final long STALE_AFTER_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /**
+     * Everything the watch face needs to draw the weather, as it was last received.
+     */
+    static final class Record {
+        final long receivedAt;
+        @Nullable final String highTemp;
+        @Nullable final String lowTemp;
+        final boolean metric;
+        @Nullable final byte[] forecastPayload;
+        @Nullable final String iconKey;
+        @Nullable final byte[] encodedIcon;
+
+        Record(long receivedAt, @Nullable String highTemp, @Nullable String lowTemp,
+               boolean metric,
+               @Nullable byte[] forecastPayload, @Nullable String iconKey,
+               @Nullable byte[] encodedIcon) {
+            this.receivedAt = receivedAt;
+            this.highTemp = highTemp;
+            this.lowTemp = lowTemp;
+            this.metric = metric;
+            this.forecastPayload = forecastPayload;
+            this.iconKey = iconKey;
+            this.encodedIcon = encodedIcon;
+        }
+
+        /**
+         * @return true if the weather was received so long ago that the phone has probably
+         * synced since
+         */
+        boolean isStale(long timeMillis) {
+            return timeMillis - receivedAt > STALE_AFTER_MILLIS || timeMillis < receivedAt;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    ForecastStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Reads the stored weather. Blocks on the file, which is small enough to be read on the main
+     * thread while the watch face is created.
+     *
+     * @return The stored weather, or null if there is none or it can't be read
+     */
+    @Nullable
+    Record load() {
+        byte[] bytes;
+        try {
+            bytes = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "load: ", e);
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            long receivedAt = in.readLong();
+            String highTemp = readString(in);
+            String lowTemp = readString(in);
+            boolean metric = in.readBoolean();
+            byte[] forecastPayload = readBytes(in);
+            String iconKey = readString(in);
+            byte[] encodedIcon = readBytes(in);
+            return new Record(receivedAt, highTemp, lowTemp, metric,
+                    forecastPayload, iconKey, encodedIcon);
+        } catch (IOException e) {
+            Log.w(TAG, "load: damaged store", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the stored weather, in the background.
+     */
+    void save(final Record record) {
+        if (mWriter.isShutdown()) {
+            return;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(record);
+            }
+        });
+    }
+
+    /**
+     * Lets pending writes finish, then stops the background thread.
+     */
+    void close() {
+        mWriter.shutdown();
+    }
+
+    private void write(Record record) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(VERSION);
+            out.writeLong(record.receivedAt);
+            writeString(out, record.highTemp);
+            writeString(out, record.lowTemp);
+            out.writeBoolean(record.metric);
+            writeBytes(out, record.forecastPayload);
+            writeString(out, record.iconKey);
+            writeBytes(out, record.encodedIcon);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "write: ", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+
+    /* A leading false stands for null, which the phone sends when it has no temperatures */
+    private static void writeString(DataOutputStream out, @Nullable String string)
+            throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /* A length of -1 stands for null */
+    private static void writeBytes(DataOutputStream out, @Nullable byte[] bytes)
+            throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Nullable
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        /*
+         * The whole file is already in memory, so available() is exactly what is left of it. A
+         * length that doesn't fit means the file is damaged, and must not make us allocate
+         * whatever it claims.
+         */
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Stored length " + length + " exceeds the "
+                    + in.available() + " bytes left");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
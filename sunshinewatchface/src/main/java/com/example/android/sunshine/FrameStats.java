@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures how long the watch face takes to draw a frame and how many objects it allocates
+ * while doing so, separately for interactive and ambient mode, and logs a summary for each mode
+ * every few frames.
+ * <p>
+ * Counting allocations slows the runtime down, so this is meant for profiling builds only. A
+ * disabled FrameStats does nothing at all.
+ * <p>
+ * Texts are formatted and measured outside of onDraw, so every frame should report no
+ * allocations.
+ */
+final class FrameStats {
+
+    private static final String TAG = FrameStats.class.getSimpleName();
+
+    /* Interactive mode draws every second, ambient mode once a minute */
+    private static final int INTERACTIVE_FRAMES_PER_REPORT = 60;
+    private static final int AMBIENT_FRAMES_PER_REPORT = 10;
+
+    private final boolean mEnabled;
+
+    private final Mode mInteractive = new Mode("interactive", INTERACTIVE_FRAMES_PER_REPORT);
+    private final Mode mAmbient = new Mode("ambient", AMBIENT_FRAMES_PER_REPORT);
+
+    private long mFrameStartNanos;
+    private int mAllocationsAtFrameStart;
+
+    FrameStats(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    @SuppressWarnings("deprecation")
+    void start() {
+        if (!mEnabled) return;
+        Debug.startAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    void stop() {
+        if (!mEnabled) return;
+        Debug.stopAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    void beginFrame() {
+        if (!mEnabled) return;
+        mAllocationsAtFrameStart = Debug.getThreadAllocCount();
+        mFrameStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    @SuppressWarnings("deprecation")
+    void endFrame(boolean ambient) {
+        if (!mEnabled) return;
+        long frameNanos = SystemClock.elapsedRealtimeNanos() - mFrameStartNanos;
+        int allocations = Debug.getThreadAllocCount() - mAllocationsAtFrameStart;
+        (ambient ? mAmbient : mInteractive).add(frameNanos, allocations);
+    }
+
+    /* The counters for one mode */
+    private static class Mode {
+        private final String mName;
+        private final int mFramesPerReport;
+
+        private int mFrames;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private int mFramesWithAllocations;
+        private int mTotalAllocations;
+
+        Mode(String name, int framesPerReport) {
+            mName = name;
+            mFramesPerReport = framesPerReport;
+        }
+
+        void add(long frameNanos, int allocations) {
+            mFrames++;
+            mTotalNanos += frameNanos;
+            mMaxNanos = Math.max(mMaxNanos, frameNanos);
+            mTotalAllocations += allocations;
+            if (allocations > 0) {
+                mFramesWithAllocations++;
+            }
+
+            if (mFrames == mFramesPerReport) {
+                Log.d(TAG, "endFrame: " + mFrames + " " + mName + " frames"
+                        + ", average " + mTotalNanos / mFrames / 1000 + " us"
+                        + ", max " + mMaxNanos / 1000 + " us"
+                        + ", allocations " + mTotalAllocations
+                        + " in " + mFramesWithAllocations + " frames");
+                mFrames = 0;
+                mTotalNanos = 0;
+                mMaxNanos = 0;
+                mFramesWithAllocations = 0;
+                mTotalAllocations = 0;
+            }
+        }
+    }
+}
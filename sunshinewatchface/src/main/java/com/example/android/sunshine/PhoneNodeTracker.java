@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.CapabilityApi;
+import com.google.android.gms.wearable.CapabilityInfo;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the phones that can sync the weather for us, and asks them to.
+ * <p>
+ * The phone app advertises the {@link #SYNC_CAPABILITY} capability, so only nodes running it are
+ * asked, not every node the watch is connected to. The nodes are looked up once when the
+ * connection is made and kept up to date by {@link #onCapabilityChanged(CapabilityInfo)}
+ * afterwards, so asking for a sync never waits for the data layer. A sync asked for before the
+ * nodes are known is sent as soon as they are.
+ * <p>
+ * Everything happens on the main thread.
+ */
+final class PhoneNodeTracker {
+
+    private static final String TAG = PhoneNodeTracker.class.getSimpleName();
+
+    /* Declared in the phone app's res/values/wear.xml */
+    static final String SYNC_CAPABILITY = "sunshine_sync";
+
+    private static final String START_SYNC_PATH = "/start_sync";
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    /* The nodes to ask, nearby ones first. Null until they have been looked up */
+    private List<String> mSyncNodeIds;
+    private boolean mSyncPending;
+
+    PhoneNodeTracker(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    /**
+     * Looks up the nodes that can sync, without waiting for the answer. Call this once the
+     * connection has been made, after registering for capability changes.
+     */
+    void onConnected() {
+        Wearable.CapabilityApi.getCapability(mGoogleApiClient, SYNC_CAPABILITY,
+                CapabilityApi.FILTER_REACHABLE).setResultCallback(
+                new ResultCallback<CapabilityApi.GetCapabilityResult>() {
+                    @Override
+                    public void onResult(@NonNull CapabilityApi.GetCapabilityResult result) {
+                        if (!result.getStatus().isSuccess()) {
+                            Log.w(TAG, "onConnected: capability lookup failed with status "
+                                    + result.getStatus().getStatusCode());
+                            return;
+                        }
+                        onCapabilityChanged(result.getCapability());
+                    }
+                });
+    }
+
+    /**
+     * Takes the nodes that can sync from a lookup or a change notification.
+     */
+    void onCapabilityChanged(CapabilityInfo capabilityInfo) {
+        if (!SYNC_CAPABILITY.equals(capabilityInfo.getName())) {
+            return;
+        }
+
+        List<String> nodeIds = new ArrayList<>();
+        for (Node node : capabilityInfo.getNodes()) {
+            if (node.isNearby()) {
+                nodeIds.add(0, node.getId());
+            } else {
+                nodeIds.add(node.getId());
+            }
+        }
+        mSyncNodeIds = nodeIds;
+        Log.d(TAG, "onCapabilityChanged: " + nodeIds.size() + " nodes can sync");
+
+        if (mSyncPending && !nodeIds.isEmpty()) {
+            mSyncPending = false;
+            sendStartSync();
+        }
+    }
+
+    /**
+     * Asks the phone to sync the weather, now if we know which phone to ask, otherwise as soon
+     * as we do.
+     */
+    void requestSync() {
+        if (mSyncNodeIds == null || mSyncNodeIds.isEmpty()) {
+            mSyncPending = true;
+            return;
+        }
+        sendStartSync();
+    }
+
+    /*
+     * The phone coalesces sync requests, but there is no point in waking more than one phone.
+     * The nearest one is asked.
+     */
+    private void sendStartSync() {
+        String nodeId = mSyncNodeIds.get(0);
+        Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, START_SYNC_PATH, new byte[0])
+                .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                    @Override
+                    public void onResult(@NonNull MessageApi.SendMessageResult result) {
+                        if (!result.getStatus().isSuccess()) {
+                            Log.e(TAG, "Failed to send message with status code: "
+                                    + result.getStatus().getStatusCode());
+                        }
+                    }
+                });
+    }
+}
@@ -28,7 +28,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -39,11 +38,9 @@ import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
-import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.CapabilityApi;
 import com.google.android.gms.wearable.CapabilityInfo;
@@ -53,16 +50,10 @@ import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.util.Calendar;
-import java.util.Collection;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -81,11 +72,21 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
      * displayed in interactive mode.
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /*
+     * Logs how long frames take to draw and how many objects they allocate, see FrameStats.
+     * Counting allocations slows everything down, so leave this off outside of profiling.
+     */
+    private static final boolean PROFILE_FRAMES = false;
     private static final String HIGH_TEMPERATURE_KEY = "high_temp";
     private static final String LOW_TEMPERATURE_KEY = "low_temp";
     private static final String WEATHER_IMAGE_KEY = "img_weather";
+    private static final String WEATHER_ICON_KEY_KEY = "icon_key";
     private static final String PASS_WEATHER_DATA_PATH = "/pass_weather_data";
-    private static final String START_SYNC_PATH = "/start_sync";
+    private static final String WEATHER_ICON_PATH_PREFIX = "/weather_icon/";
+    private static final String FORECAST_KEY = "forecast";
+    private static final String METRIC_KEY = "metric";
+    private static final String UNITS_PATH = "/units";
 
 
     /**
@@ -93,6 +94,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Handler message id for bringing the clock's texts up to date when the minute changes.
+     */
+    private static final int MSG_UPDATE_CLOCK = 1;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -113,6 +119,9 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         engine.handleUpdateTimeMessage();
                         break;
+                    case MSG_UPDATE_CLOCK:
+                        engine.handleUpdateClockMessage();
+                        break;
                 }
             }
         }
@@ -126,7 +135,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             CapabilityApi.CapabilityListener,
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener,
-            DataApi.DataListener {
+            DataApi.DataListener,
+            WeatherIconLoader.Callback {
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
@@ -134,8 +144,13 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                invalidate();
+                // The time zone, the time itself or the locale has changed, so the texts may be
+                // wrong now
+                mClock.setTimeZone(TimeZone.getDefault());
+                updateTimeFormat();
+                updateClock();
+                scheduleClockUpdate();
+                redraw();
             }
         };
 
@@ -143,16 +158,80 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         boolean mAmbient;
 
         // Components to be drawn
-        Calendar mCalendar;
-        Date mDate;
-        String mDateString;
+        /* The time and date as text, only formatted when the minute or the day changes */
+        final WatchClock mClock = new WatchClock();
         String mHighTemp = getString(R.string.no_weather_data);
         String mLowTemp = getString(R.string.no_weather_data);
         Bitmap mWeatherIcon = BitmapFactory.decodeResource(getBaseContext().getResources(),
                 R.drawable.close_button);
 
+        /*
+         * The phone sends every icon once, in a data item of its own, and afterwards refers to
+         * it by key. The loader fetches and decodes them, and remembers the ones it has decoded.
+         */
+        WeatherIconLoader mIconLoader;
+        String mWeatherIconKey;
+
+        /* The phones that can sync the weather for us, kept up to date as they come and go */
+        PhoneNodeTracker mPhoneNodeTracker;
+
+        /*
+         * Every day of the forecast, so that we can move on to the next day and switch units
+         * without asking the phone. Null until the phone sends one.
+         */
+        WearForecast mForecast;
+        boolean mMetric = true;
+        /* Day number mHighTemp and mLowTemp were last taken from, -1 to take them again */
+        long mForecastDayShown = -1;
+
+        /*
+         * The last weather the phone sent, kept on the watch so that the next start can show it
+         * before the first frame instead of waiting for the phone. The forecast and the icon are
+         * kept as they arrived, to be stored again whenever something changes.
+         */
+        ForecastStore mForecastStore;
+        long mWeatherReceivedAt;
+        byte[] mForecastPayload;
+        byte[] mEncodedWeatherIcon;
+
+        /* Width of the time text, measured when it changes. The seconds get their own buffer */
+        float mTimeWidth;
+        final char[] mSecondChars = new char[2];
+
+        /*
+         * Where onDraw puts everything. Only computed again when the size of the face or one of
+         * the texts on it changes, see updateLayout.
+         */
+        boolean mLayoutDirty = true;
+        int mLayoutWidth = -1;
+        int mLayoutHeight = -1;
+        float mCenterX;
+        float mTimeX;
+        float mTimeY;
+        float mIconX;
+        float mIconY;
+        float mDateX;
+        float mDateY;
+        float mLineY;
+        float mLineStartX;
+        float mLineEndX;
+        float mTemperatureY;
+        float mHighX;
+        float mLowX;
+
+        /* Font metrics of the date and temperature paints, taken whenever their size changes */
+        float mDateLineHeight;
+        float mTemperatureLineHeight;
+
+        /*
+         * Everything but the time only changes when the weather, the date or the mode does, so
+         * it is drawn once into an offscreen layer that every frame starts from. Ambient mode
+         * draws a different set of things with different paints, so it has a layer of its own.
+         */
+        final StaticLayer mInteractiveLayer = new StaticLayer(false);
+        final StaticLayer mAmbientLayer = new StaticLayer(true);
 
-        java.text.DateFormat mTimeFormat;
+        final FrameStats mFrameStats = new FrameStats(PROFILE_FRAMES);
 
         float mXOffsetForWeatherIcon;
         float mXOffsetForTime;
@@ -183,6 +262,15 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
 
+        /*
+         * Whether the screen needs burn-in protection in ambient mode. If so, ambient mode moves
+         * the face around by up to mBurnInShift pixels, to a different spot every minute.
+         */
+        boolean mBurnInProtection;
+        float mBurnInShift;
+        float mAmbientShiftX;
+        float mAmbientShiftY;
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -193,6 +281,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     .addApi(Wearable.API)
                     .build();
             mGoogleApiClient.connect();
+            mIconLoader = new WeatherIconLoader(mGoogleApiClient, this);
+            mPhoneNodeTracker = new PhoneNodeTracker(mGoogleApiClient);
 
 
             Log.d(TAG, "onCreate: isConnected" + mGoogleApiClient.isConnected());
@@ -201,7 +291,6 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
-                    .setAcceptsTapEvents(true)
                     .build());
 
             mWeatherIcon = BitmapFactory.decodeResource(getBaseContext().getResources(),
@@ -213,6 +302,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mYOffsetForTemperature = resources.getDimension(R.dimen.digital_y_offset_for_temperature);
             mYOffsetForWeatherIcon = resources.getDimension(R.dimen.digital_y_offset_for_weather_icon);
 
+            mBurnInShift = resources.getDimension(R.dimen.burn_in_shift);
+
             mDateTextSize = resources.getDimension(R.dimen.text_date);
             mTemperatureTextSize = resources.getDimension(R.dimen.text_temperature);
 
@@ -238,21 +329,84 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mLowTempPaint = createTextPaint(resources.getColor(R.color.colorPrimaryLight));
 
 
-            mCalendar = Calendar.getInstance();
-            mDate = new Date();
-            mDateString = (android.text.format.DateFormat.format("EEE, MMM dd yyyy", mCalendar)).toString();
-            mTimeFormat = android.text.format.DateFormat.getTimeFormat(getApplicationContext());
+            mForecastStore = new ForecastStore(SunshineWatchFaceService.this);
+            boolean restored = restoreWeather();
+
+            updateTimeFormat();
+            updateClock();
+            mFrameStats.start();
 
-            if (mHighTemp.equals(getString(R.string.no_weather_data))) {
+            if (!restored) {
                 askPhoneToSyncData();
             }
             Log.d(TAG, "onCreate: mHighTemp is " + mHighTemp);
         }
 
+        /**
+         * Shows the weather stored by the last run, if there is any.
+         *
+         * @return true if it is recent enough that there is no need to ask the phone for a sync
+         */
+        private boolean restoreWeather() {
+            ForecastStore.Record record = mForecastStore.load();
+            if (record == null) {
+                return false;
+            }
+
+            mWeatherReceivedAt = record.receivedAt;
+            // Keep showing "no data" for temperatures the phone didn't send
+            if (record.highTemp != null) {
+                mHighTemp = record.highTemp;
+            }
+            if (record.lowTemp != null) {
+                mLowTemp = record.lowTemp;
+            }
+            mMetric = record.metric;
+            mForecastPayload = record.forecastPayload;
+            mForecast = WearForecast.decode(record.forecastPayload);
+            mForecastDayShown = -1;
+
+            if (record.encodedIcon != null) {
+                Bitmap icon = BitmapFactory.decodeByteArray(
+                        record.encodedIcon, 0, record.encodedIcon.length);
+                if (icon != null) {
+                    mWeatherIcon = icon;
+                    mWeatherIconKey = record.iconKey;
+                    mEncodedWeatherIcon = record.encodedIcon;
+                    mIconLoader.setDisplayedIcon(icon);
+                }
+            }
+            mLayoutDirty = true;
+
+            // Without today in the forecast we'd be showing the temperatures of another day
+            long now = System.currentTimeMillis();
+            boolean coversToday = mForecast != null && mForecast.indexOfDay(
+                    WearForecast.toDay(now, TimeZone.getDefault().getOffset(now))) != -1;
+            Log.d(TAG, "restoreWeather: received at " + record.receivedAt
+                    + ", covers today " + coversToday);
+            return coversToday && !record.isStale(now);
+        }
+
+        /**
+         * Stores what the face shows now, for the next start. The file is written in the
+         * background.
+         */
+        private void storeWeather() {
+            mForecastStore.save(new ForecastStore.Record(mWeatherReceivedAt,
+                    mHighTemp, mLowTemp, mMetric, mForecastPayload,
+                    mWeatherIconKey, mEncodedWeatherIcon));
+        }
+
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_UPDATE_CLOCK);
+            mFrameStats.stop();
+            mInteractiveLayer.release();
+            mAmbientLayer.release();
+            mIconLoader.shutdown();
+            mForecastStore.close();
             mGoogleApiClient.disconnect();
             super.onDestroy();
         }
@@ -274,10 +428,15 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mClock.setTimeZone(TimeZone.getDefault());
+                // So may have the choice between 12 and 24 hours
+                updateTimeFormat();
+                updateClock();
+                scheduleClockUpdate();
                 invalidate();
             } else {
                 unregisterReceiver();
+                mUpdateTimeHandler.removeMessages(MSG_UPDATE_CLOCK);
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -292,6 +451,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
             SunshineWatchFaceService.this.registerReceiver(mTimeZoneReceiver, filter);
         }
 
@@ -330,20 +491,63 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mLowTempPaint.setTextSize(mTemperatureTextSize);
             mSecondPaint.setTextSize(textSize / 2);
 
+            Paint.FontMetrics fm = mDatePaint.getFontMetrics();
+            mDateLineHeight = fm.descent - fm.ascent;
+            mHighTempPaint.getFontMetrics(fm);
+            mTemperatureLineHeight = fm.descent - fm.ascent;
+
+            // The time has to be measured again with the new text size
+            measureTime();
+            mLayoutDirty = true;
+
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            mAmbientLayer.invalidate();
         }
 
+        /**
+         * Called once a minute, in ambient mode as well. This is the only regular redraw in
+         * ambient mode; changes that come in between are drawn with the next tick.
+         */
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            // The clock message may be late in ambient mode, so don't wait for it
+            updateClock();
+            updateAmbientShift();
             invalidate();
         }
 
+        /**
+         * Redraws the face now in interactive mode. Ambient mode draws at most once a minute, so
+         * there the change waits for the next {@link #onTimeTick()}.
+         */
+        private void redraw() {
+            if (!isInAmbientMode()) {
+                invalidate();
+            }
+        }
+
+        /*
+         * Walks through the nine spots of a 3 by 3 grid around the center, one per minute, so
+         * that no pixel stays lit for long.
+         */
+        private void updateAmbientShift() {
+            if (!mBurnInProtection) {
+                mAmbientShiftX = 0;
+                mAmbientShiftY = 0;
+                return;
+            }
+            long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+            mAmbientShiftX = (minute % 3 - 1) * mBurnInShift;
+            mAmbientShiftY = (minute / 3 % 3 - 1) * mBurnInShift;
+        }
+
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             Log.d(TAG, "onAmbientModeChanged: ");
@@ -351,6 +555,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
+                updateAmbientShift();
                 if (mLowBitAmbient) {
                     mTimePaint.setAntiAlias(!inAmbientMode);
                     mDatePaint.setAntiAlias(!inAmbientMode);
@@ -366,96 +571,206 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             updateTimer();
         }
 
+        @Override
+        public void onDraw(Canvas canvas, Rect bounds) {
+            mFrameStats.beginFrame();
+
+            if (mLayoutDirty || bounds.width() != mLayoutWidth
+                    || bounds.height() != mLayoutHeight) {
+                updateLayout(bounds.width(), bounds.height());
+            }
+
+            if (isInAmbientMode()) {
+                drawAmbient(canvas, bounds);
+                mFrameStats.endFrame(true);
+                return;
+            }
+
+            // Everything but the time
+            canvas.drawBitmap(mInteractiveLayer.get(bounds.width(), bounds.height()),
+                    0, 0, null);
+
+            // Draw H:MM:SS in interactive mode.
+            canvas.drawText(mClock.getTimeChars(), 0, mClock.getTimeLength(),
+                    mTimeX, mTimeY, mTimePaint);
+
+            // ss
+            int second = WatchClock.getSecond(System.currentTimeMillis());
+            mSecondChars[0] = (char) ('0' + second / 10);
+            mSecondChars[1] = (char) ('0' + second % 10);
+            canvas.drawText(mSecondChars, 0, mSecondChars.length,
+                    mTimeX + mTimeWidth, mTimeY, mSecondPaint);
+
+            mFrameStats.endFrame(false);
+        }
+
         /**
-         * Captures tap event (and tap type) and toggles the background color if the user finishes
-         * a tap.
+         * Draws H:MM over the ambient layer, moved to this minute's spot if the screen needs
+         * burn-in protection. Everything drawn here has been laid out already.
          */
-        @Override
-        public void onTapCommand(int tapType, int x, int y, long eventTime) {
-            Log.d(TAG, "onTapCommand: ");
-            switch (tapType) {
-                case TAP_TYPE_TOUCH:
-                    // The user has started touching the screen.
-                    break;
-                case TAP_TYPE_TOUCH_CANCEL:
-                    // The user has started a different gesture or otherwise cancelled the tap.
-                    break;
-                case TAP_TYPE_TAP:
-                    // The user has completed the tap gesture.
-                    // TODO: Add code to handle the tap gesture.
-                    Toast.makeText(getApplicationContext(), R.string.message, Toast.LENGTH_SHORT)
-                            .show();
-                    break;
+        private void drawAmbient(Canvas canvas, Rect bounds) {
+            canvas.drawColor(Color.BLACK);
+
+            int saveCount = canvas.save();
+            canvas.translate(mAmbientShiftX, mAmbientShiftY);
+            canvas.drawBitmap(mAmbientLayer.get(bounds.width(), bounds.height()), 0, 0, null);
+            canvas.drawText(mClock.getTimeChars(), 0, mClock.getTimeLength(),
+                    mTimeX, mTimeY, mTimePaint);
+            canvas.restoreToCount(saveCount);
+        }
+
+        /**
+         * Reads the locale and whether the user wants 12 or 24 hours. Allocates, so it isn't
+         * called while drawing; the clock only builds its patterns again when either changed.
+         */
+        private void updateTimeFormat() {
+            mClock.setTimeFormat(Locale.getDefault(), android.text.format.DateFormat
+                    .is24HourFormat(SunshineWatchFaceService.this));
+        }
+
+        /**
+         * Brings the clock's texts up to date, and what depends on them: the width of the time,
+         * the layout when the date changes, and the day the forecast is shown for.
+         */
+        private int updateClock() {
+            int changed = mClock.update(System.currentTimeMillis());
+            if ((changed & WatchClock.CHANGED_TIME) != 0) {
+                measureTime();
             }
-            invalidate();
+            if ((changed & WatchClock.CHANGED_DATE) != 0) {
+                mLayoutDirty = true;
+                showForecastForToday();
+            }
+            return changed;
         }
 
+        private void measureTime() {
+            mTimeWidth = mTimePaint.measureText(
+                    mClock.getTimeChars(), 0, mClock.getTimeLength());
+            mTimeX = mCenterX - mTimeWidth / 2;
+        }
 
-        private String formatTwoDigitNumber(int hour) {
-            return String.format("%02d", hour);
+        /**
+         * Schedules {@link #MSG_UPDATE_CLOCK} for the start of the next minute, while visible.
+         */
+        private void scheduleClockUpdate() {
+            mUpdateTimeHandler.removeMessages(MSG_UPDATE_CLOCK);
+            if (isVisible()) {
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_CLOCK,
+                        WatchClock.getMillisUntilNextMinute(System.currentTimeMillis()));
+            }
         }
 
-        @Override
-        public void onDraw(Canvas canvas, Rect bounds) {
+        /**
+         * Handle the minute changing.
+         */
+        private void handleUpdateClockMessage() {
+            if (updateClock() != WatchClock.CHANGED_NOTHING) {
+                redraw();
+            }
+            scheduleClockUpdate();
+        }
 
-            int width = bounds.width();
-            int height = bounds.height();
+        /**
+         * Works out where everything goes on a face of the given size, with the current texts.
+         */
+        private void updateLayout(int width, int height) {
             // centerX is 240.0 for 480 x 480
             float centerX = width / 2f;
             float centerY = height / 2f;
+            mCenterX = centerX;
+
+            mIconX = centerX / 3;
+            mIconY = centerY / 5;
+
+            mTimeX = centerX - mTimeWidth / 2;
+            mTimeY = centerY + 10;
+
+            mDateX = centerX - mDatePaint.measureText(mClock.getDateString()) / 2;
+            mDateY = mTimeY + mDateLineHeight + centerY / 5;
 
-//            float xOffsetForTime = centerX/2f;
-            float xOffsetForTime;
-            float yOffset = centerY + 10;
+            mLineY = mDateY + 15;
+            mLineStartX = centerX - 130;
+            mLineEndX = centerX + 130;
 
+            mTemperatureY = mLineY + mTemperatureLineHeight;
+            mHighX = centerX - mHighTempPaint.measureText(mHighTemp);
+            mLowX = centerX;
 
+            mLayoutWidth = width;
+            mLayoutHeight = height;
+            mLayoutDirty = false;
+
+            mInteractiveLayer.invalidate();
+            mAmbientLayer.invalidate();
+        }
+
+        /**
+         * Draws everything but the time, with the paints set up for the current mode.
+         */
+        private void drawStaticContent(Canvas canvas, boolean ambient) {
             // Draw the background.
-            if (isInAmbientMode()) {
+            if (ambient) {
                 canvas.drawColor(Color.BLACK);
             } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+                canvas.drawRect(0, 0, mLayoutWidth, mLayoutHeight, mBackgroundPaint);
                 // Icon
-                Bitmap weatherIcon = mWeatherIcon;
-                canvas.drawBitmap(weatherIcon, centerX / 3, centerY / 5, mIconPaint);
-            }
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-
-            // HH:MM
-            String timeText = mTimeFormat.format(mDate);
-            xOffsetForTime = centerX - mTimePaint.measureText(timeText) / 2;
-            canvas.drawText(timeText, xOffsetForTime, yOffset, mTimePaint);
-
-            if(!isInAmbientMode()){
-                // ss
-                canvas.drawText(formatTwoDigitNumber(mCalendar.get(Calendar.SECOND)),
-                        xOffsetForTime + mTimePaint.measureText(timeText),
-                        yOffset, mSecondPaint);
+                canvas.drawBitmap(mWeatherIcon, mIconX, mIconY, mIconPaint);
             }
 
             // date
-            Paint.FontMetrics fm = mDatePaint.getFontMetrics();
-            yOffset += fm.descent - fm.ascent + centerY/5;
-            canvas.drawText(mDateString,
-                    centerX - mDatePaint.measureText(mDateString)/2, yOffset, mDatePaint);
+            canvas.drawText(mClock.getDateString(), mDateX, mDateY, mDatePaint);
 
             // line
-            yOffset += 15;
-            canvas.drawLine(centerX - 130, yOffset, centerX + 130, yOffset, mLinePaint);
+            canvas.drawLine(mLineStartX, mLineY, mLineEndX, mLineY, mLinePaint);
 
             //high
-            fm = mHighTempPaint.getFontMetrics();
-            yOffset += fm.descent - fm.ascent;
-            String highTemp = mHighTemp;
-            canvas.drawText(highTemp, centerX - mHighTempPaint.measureText(highTemp),
-                    yOffset, mHighTempPaint);
+            canvas.drawText(mHighTemp, mHighX, mTemperatureY, mHighTempPaint);
 
             //low
-            String lowTemp = mLowTemp;
-            canvas.drawText(lowTemp, centerX,
-                    yOffset, mLowTempPaint);
+            canvas.drawText(mLowTemp, mLowX, mTemperatureY, mLowTempPaint);
+        }
+
+        /**
+         * An offscreen bitmap holding everything but the time, for one of the two modes. It is
+         * only drawn again after {@link #invalidate()}, or when the size of the face changes.
+         */
+        private class StaticLayer {
+            private final boolean mAmbientLayer;
+            private Bitmap mBitmap;
+            private Canvas mCanvas;
+            private boolean mDirty = true;
+
+            StaticLayer(boolean ambientLayer) {
+                mAmbientLayer = ambientLayer;
+            }
+
+            void invalidate() {
+                mDirty = true;
+            }
+
+            Bitmap get(int width, int height) {
+                if (mBitmap == null
+                        || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                    release();
+                    mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    mCanvas = new Canvas(mBitmap);
+                    mDirty = true;
+                }
+                if (mDirty) {
+                    drawStaticContent(mCanvas, mAmbientLayer);
+                    mDirty = false;
+                }
+                return mBitmap;
+            }
+
+            void release() {
+                if (mBitmap != null) {
+                    mBitmap.recycle();
+                    mBitmap = null;
+                    mCanvas = null;
+                }
+            }
         }
 
         /**
@@ -497,19 +812,25 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onCapabilityChanged(CapabilityInfo capabilityInfo) {
-            Log.d(TAG, "onCapabilityChanged: ");
+            Log.d(TAG, "onCapabilityChanged: " + capabilityInfo.getName());
+            mPhoneNodeTracker.onCapabilityChanged(capabilityInfo);
         }
 
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(TAG, "onConnected: isconnected " + mGoogleApiClient.isConnected());
             Wearable.DataApi.addListener(mGoogleApiClient, this);
+            Wearable.CapabilityApi.addCapabilityListener(mGoogleApiClient, this,
+                    PhoneNodeTracker.SYNC_CAPABILITY);
+            mPhoneNodeTracker.onConnected();
         }
 
 
         @Override
         public void onConnectionSuspended(int i) {
             Wearable.DataApi.removeListener(mGoogleApiClient, this);
+            Wearable.CapabilityApi.removeCapabilityListener(mGoogleApiClient, this,
+                    PhoneNodeTracker.SYNC_CAPABILITY);
             Log.d(TAG, "onConnectionSuspended: ");
         }
 
@@ -529,100 +850,118 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     if (PASS_WEATHER_DATA_PATH.equals(path)) {
                         DataMapItem dataMapItem = DataMapItem.fromDataItem(event.getDataItem());
 
-                        Asset weatherIcon = dataMapItem.getDataMap()
-                                .getAsset(WEATHER_IMAGE_KEY);
-                        new LoadBitmapAsyncTask().execute(weatherIcon);
+                        String iconKey = dataMapItem.getDataMap()
+                                .getString(WEATHER_ICON_KEY_KEY);
+                        if (iconKey != null) {
+                            showWeatherIcon(iconKey);
+                        } else {
+                            /* Sent by a phone app that still puts the icon in every update */
+                            Asset weatherIcon = dataMapItem.getDataMap()
+                                    .getAsset(WEATHER_IMAGE_KEY);
+                            mWeatherIconKey = null;
+                            mEncodedWeatherIcon = null;
+                            mIconLoader.load(null, weatherIcon, true);
+                        }
 
-                        mHighTemp = dataMapItem.getDataMap()
-                                .getString(HIGH_TEMPERATURE_KEY);
-                        mLowTemp = dataMapItem.getDataMap()
-                                .getString(LOW_TEMPERATURE_KEY);
+                        mHighTemp = dataMapItem.getDataMap().getString(
+                                HIGH_TEMPERATURE_KEY, getString(R.string.no_weather_data));
+                        mLowTemp = dataMapItem.getDataMap().getString(
+                                LOW_TEMPERATURE_KEY, getString(R.string.no_weather_data));
+                        mLayoutDirty = true;
+
+                        mForecastPayload = dataMapItem.getDataMap().getByteArray(FORECAST_KEY);
+                        mForecast = WearForecast.decode(mForecastPayload);
+                        mForecastDayShown = -1;
+                        mWeatherReceivedAt = System.currentTimeMillis();
+                        showForecastForToday();
+                        storeWeather();
+                        redraw();
+                    } else if (UNITS_PATH.equals(path)) {
+                        mMetric = DataMapItem.fromDataItem(event.getDataItem())
+                                .getDataMap().getBoolean(METRIC_KEY, true);
+                        mForecastDayShown = -1;
+                        showForecastForToday();
+                        storeWeather();
+                        redraw();
+                    } else if (path != null && path.startsWith(WEATHER_ICON_PATH_PREFIX)) {
+                        String iconKey = path.substring(WEATHER_ICON_PATH_PREFIX.length());
+                        Asset weatherIcon = DataMapItem.fromDataItem(event.getDataItem())
+                                .getDataMap().getAsset(WEATHER_IMAGE_KEY);
+                        /* Show it right away if the weather named it before it got here */
+                        mIconLoader.load(iconKey, weatherIcon, iconKey.equals(mWeatherIconKey));
                     }
                 }
             }
         }
 
-        private void askPhoneToSyncData() {
-            new AskPhoneAsyncTask().execute();
-        }
-
-        private class AskPhoneAsyncTask extends AsyncTask<Void, Void, Void> {
-
-            @Override
-            protected Void doInBackground(Void... args) {
-                Collection<String> nodes = getNodes();
-                for (String node : nodes) {
-                    sendStartSyncMessage(node);
-                }
-                return null;
+        /**
+         * Takes today's temperatures from the forecast, if the phone sent one and it covers
+         * today. Otherwise the temperatures the phone formatted for us stay.
+         */
+        private void showForecastForToday() {
+            if (mForecast == null) {
+                return;
             }
-        }
-
 
-        private Collection<String> getNodes() {
-            HashSet<String> results = new HashSet<>();
-
-            NodeApi.GetConnectedNodesResult nodes =
-                    Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
+            long now = System.currentTimeMillis();
+            long today = WearForecast.toDay(now, TimeZone.getDefault().getOffset(now));
+            if (today == mForecastDayShown) {
+                return;
+            }
 
-            for (Node node : nodes.getNodes()) {
-                results.add(node.getId());
+            int index = mForecast.indexOfDay(today);
+            if (index == -1) {
+                return;
             }
-            return results;
+            mHighTemp = formatTemperature(mForecast.getHigh(index, mMetric));
+            mLowTemp = formatTemperature(mForecast.getLow(index, mMetric));
+            mLayoutDirty = true;
+            mForecastDayShown = today;
         }
 
-
-        private void sendStartSyncMessage(String node) {
-
-            Wearable.MessageApi.sendMessage(
-                    mGoogleApiClient, node, START_SYNC_PATH,
-                    new byte[0]).setResultCallback(
-                    new ResultCallback<MessageApi.SendMessageResult>() {
-                        @Override
-                        public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-                            if (!sendMessageResult.getStatus().isSuccess()) {
-                                Log.e(TAG, "Failed to send message with status code: "
-                                        + sendMessageResult.getStatus().getStatusCode());
-                            }
-                        }
-                    }
-            );
+        private String formatTemperature(double temperature) {
+            return String.format(getString(R.string.format_temperature), temperature);
         }
 
-
-        private class LoadBitmapAsyncTask extends AsyncTask<Asset, Void, Bitmap> {
-
-            @Override
-            protected Bitmap doInBackground(Asset... params) {
-
-                if (params.length > 0) {
-
-                    Asset asset = params[0];
-                    InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                            mGoogleApiClient, asset).await().getInputStream();
-
-                    if (assetInputStream == null) {
-                        Log.w(TAG, "Requested an unknown Asset.");
-                        return null;
-                    }
-                    return BitmapFactory.decodeStream(assetInputStream);
-
-                } else {
-                    Log.e(TAG, "Asset must be non-null");
-                    return null;
-                }
+        /**
+         * Shows the icon with the given key, decoding it first if we haven't done so yet. If the
+         * icon's data item hasn't reached the watch yet, the current icon stays until it does.
+         */
+        private void showWeatherIcon(String iconKey) {
+            if (iconKey.equals(mWeatherIconKey) && mEncodedWeatherIcon != null) {
+                // Already on screen, possibly restored from the store
+                return;
             }
+            mWeatherIconKey = iconKey;
+            // The stored icon must never go with another key
+            mEncodedWeatherIcon = null;
+            if (!mIconLoader.showCached(iconKey)) {
+                /* No asset given, so the loader looks the icon up in the data layer */
+                mIconLoader.load(iconKey, null, true);
+            }
+        }
 
-
-            @Override
-            protected void onPostExecute(Bitmap bitmap) {
-
-                if (bitmap != null) {
-                    mWeatherIcon = bitmap;
-                }
+        @Override
+        public void onIconLoaded(@Nullable String iconKey, Bitmap icon,
+                                 @Nullable byte[] encodedIcon) {
+            mWeatherIcon = icon;
+            mIconLoader.setDisplayedIcon(icon);
+            mInteractiveLayer.invalidate();
+            redraw();
+
+            if (encodedIcon != null && encodedIcon != mEncodedWeatherIcon) {
+                mEncodedWeatherIcon = encodedIcon;
+                storeWeather();
             }
         }
 
+        /**
+         * Asks the phone for the weather. Doesn't wait for anything; if we don't know which phone
+         * to ask yet, the request goes out as soon as we do.
+         */
+        private void askPhoneToSyncData() {
+            mPhoneNodeTracker.requestSync();
+        }
     }
 
 
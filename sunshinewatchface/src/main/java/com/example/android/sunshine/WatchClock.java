@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.text.format.DateFormat;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time and date the watch face shows, as text.
+ * <p>
+ * The text only changes when the minute or the day does, so {@link #update(long)} is meant to be
+ * called at those moments (see {@link #getMillisUntilNextMinute(long)}) rather than for every
+ * frame. The time is formatted into a char buffer that is reused from one minute to the next;
+ * the date string is only built when the day changes.
+ * <p>
+ * Both follow the locale. The time pattern the locale prefers (for example "H:mm", "h:mm a" or
+ * "a h:mm") is taken apart into fields once, when the locale or the choice between the 12 and 24
+ * hour clock changes, so that formatting the time each minute is only a matter of copying
+ * characters, in the locale's own digits. Time zone changes make the next update format
+ * everything again.
+ */
+final class WatchClock {
+
+    /* Flags returned by update() */
+    static final int CHANGED_NOTHING = 0;
+    static final int CHANGED_TIME = 1;
+    static final int CHANGED_DATE = 2;
+
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /* Skeletons handed to DateFormat#getBestDateTimePattern, which orders them for the locale */
+    private static final String TIME_SKELETON_12_HOUR = "hm";
+    private static final String TIME_SKELETON_24_HOUR = "Hm";
+    private static final String DATE_SKELETON = "EEEMMMddyyyy";
+
+    /* The fields a time pattern is taken apart into */
+    private static final int FIELD_LITERAL = 0;
+    private static final int FIELD_HOUR_0_23 = 1;
+    private static final int FIELD_HOUR_1_24 = 2;
+    private static final int FIELD_HOUR_1_12 = 3;
+    private static final int FIELD_HOUR_0_11 = 4;
+    private static final int FIELD_MINUTE = 5;
+    private static final int FIELD_AM_PM = 6;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    private char[] mTimeChars = new char[0];
+    private int mTimeLength;
+    private String mDateString = "";
+
+    /* Minute of the day and day of the era the texts were built for, -1 to build them again */
+    private int mMinuteShown = -1;
+    private long mDayShown = -1;
+
+    /* What the patterns below were built for, so they are only built again when that changes */
+    private Locale mLocale;
+    private boolean m24HourFormat;
+
+    /*
+     * The time pattern, one entry per field. A literal's text is at mFieldStarts in
+     * mLiteralChars and is mFieldLengths long; for a number, mFieldLengths is its minimum width.
+     */
+    private int mFieldCount;
+    private int[] mFieldTypes = new int[0];
+    private int[] mFieldStarts = new int[0];
+    private int[] mFieldLengths = new int[0];
+    private char[] mLiteralChars = new char[0];
+
+    private char mZeroDigit = '0';
+    private String[] mAmPmStrings;
+    private String mDatePattern;
+
+    WatchClock() {
+        setTimeFormat(Locale.getDefault(), false);
+    }
+
+    /**
+     * Builds the time and date patterns for the given locale. Allocates, so it isn't meant to be
+     * called while drawing, but returns right away if neither argument changed.
+     *
+     * @param locale         The locale to format the time and date for
+     * @param is24HourFormat Whether to show the hours from 0 to 23 rather than from 1 to 12
+     */
+    void setTimeFormat(Locale locale, boolean is24HourFormat) {
+        if (locale.equals(mLocale) && is24HourFormat == m24HourFormat) {
+            return;
+        }
+        mLocale = locale;
+        m24HourFormat = is24HourFormat;
+
+        compileTimePattern(DateFormat.getBestDateTimePattern(locale,
+                is24HourFormat ? TIME_SKELETON_24_HOUR : TIME_SKELETON_12_HOUR));
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        mAmPmStrings = DateFormatSymbols.getInstance(locale).getAmPmStrings();
+        mDatePattern = DateFormat.getBestDateTimePattern(locale, DATE_SKELETON);
+
+        /* Room for the longest time the pattern can produce */
+        int maxTimeLength = 0;
+        for (int i = 0; i < mFieldCount; i++) {
+            if (mFieldTypes[i] == FIELD_LITERAL) {
+                maxTimeLength += mFieldLengths[i];
+            } else if (mFieldTypes[i] == FIELD_AM_PM) {
+                maxTimeLength += Math.max(mAmPmStrings[0].length(), mAmPmStrings[1].length());
+            } else {
+                maxTimeLength += 2;
+            }
+        }
+        mTimeChars = new char[maxTimeLength];
+        mTimeLength = 0;
+
+        mMinuteShown = -1;
+        mDayShown = -1;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mMinuteShown = -1;
+        mDayShown = -1;
+    }
+
+    /**
+     * Brings the texts up to date with the given time.
+     *
+     * @param timeMillis The current time
+     * @return Which of the texts changed, a combination of {@link #CHANGED_TIME} and
+     * {@link #CHANGED_DATE}, or {@link #CHANGED_NOTHING}
+     */
+    int update(long timeMillis) {
+        mCalendar.setTimeInMillis(timeMillis);
+        int changed = CHANGED_NOTHING;
+
+        long day = mCalendar.get(Calendar.ERA) * 100000L
+                + mCalendar.get(Calendar.YEAR) * 1000L
+                + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day != mDayShown) {
+            mDateString = DateFormat.format(mDatePattern, mCalendar).toString();
+            mDayShown = day;
+            changed |= CHANGED_DATE;
+        }
+
+        int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        int minute = mCalendar.get(Calendar.MINUTE);
+        int minuteOfDay = hour * 60 + minute;
+        if (minuteOfDay != mMinuteShown) {
+            formatTime(hour, minute);
+            mMinuteShown = minuteOfDay;
+            changed |= CHANGED_TIME;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Every time zone in use today is a whole number of minutes away from UTC, so the minute
+     * changes at the same moment everywhere.
+     *
+     * @return How long from the given time until the next minute starts
+     */
+    static long getMillisUntilNextMinute(long timeMillis) {
+        return MINUTE_IN_MILLIS - timeMillis % MINUTE_IN_MILLIS;
+    }
+
+    /**
+     * @return The second of the minute at the given time, worked out without the calendar
+     */
+    static int getSecond(long timeMillis) {
+        return (int) (timeMillis / 1000 % 60);
+    }
+
+    char[] getTimeChars() {
+        return mTimeChars;
+    }
+
+    int getTimeLength() {
+        return mTimeLength;
+    }
+
+    String getDateString() {
+        return mDateString;
+    }
+
+    /*
+     * Takes a time pattern apart into literals and fields. Quoted text is a literal, and two
+     * quotes in a row stand for one. Letters for anything but hours, minutes and the AM/PM
+     * marker don't occur in the patterns we ask for, and are left out.
+     */
+    private void compileTimePattern(String pattern) {
+        int patternLength = pattern.length();
+        mFieldTypes = new int[patternLength];
+        mFieldStarts = new int[patternLength];
+        mFieldLengths = new int[patternLength];
+        mFieldCount = 0;
+        StringBuilder literals = new StringBuilder();
+
+        int i = 0;
+        while (i < patternLength) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                int start = literals.length();
+                int quoteStart = i++;
+                while (i < patternLength) {
+                    char quoted = pattern.charAt(i++);
+                    if (quoted != '\'') {
+                        literals.append(quoted);
+                    } else if (i == quoteStart + 2) {
+                        /* '' on its own */
+                        literals.append('\'');
+                        break;
+                    } else if (i < patternLength && pattern.charAt(i) == '\'') {
+                        literals.append('\'');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                addField(FIELD_LITERAL, start, literals.length() - start);
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int count = 1;
+                while (i + count < patternLength && pattern.charAt(i + count) == c) {
+                    count++;
+                }
+                int type = getFieldType(c);
+                if (type != -1) {
+                    addField(type, 0, count);
+                }
+                i += count;
+            } else {
+                addField(FIELD_LITERAL, literals.length(), 1);
+                literals.append(c);
+                i++;
+            }
+        }
+
+        mLiteralChars = literals.toString().toCharArray();
+    }
+
+    private void addField(int type, int start, int length) {
+        mFieldTypes[mFieldCount] = type;
+        mFieldStarts[mFieldCount] = start;
+        mFieldLengths[mFieldCount] = length;
+        mFieldCount++;
+    }
+
+    private static int getFieldType(char patternLetter) {
+        switch (patternLetter) {
+            case 'H':
+                return FIELD_HOUR_0_23;
+            case 'k':
+                return FIELD_HOUR_1_24;
+            case 'h':
+                return FIELD_HOUR_1_12;
+            case 'K':
+                return FIELD_HOUR_0_11;
+            case 'm':
+                return FIELD_MINUTE;
+            case 'a':
+                return FIELD_AM_PM;
+            default:
+                return -1;
+        }
+    }
+
+    /* Fills in the compiled time pattern, without allocating */
+    private void formatTime(int hour, int minute) {
+        int length = 0;
+        for (int i = 0; i < mFieldCount; i++) {
+            switch (mFieldTypes[i]) {
+                case FIELD_LITERAL:
+                    System.arraycopy(mLiteralChars, mFieldStarts[i],
+                            mTimeChars, length, mFieldLengths[i]);
+                    length += mFieldLengths[i];
+                    break;
+                case FIELD_HOUR_0_23:
+                    length = appendNumber(hour, mFieldLengths[i], length);
+                    break;
+                case FIELD_HOUR_1_24:
+                    length = appendNumber(hour == 0 ? 24 : hour, mFieldLengths[i], length);
+                    break;
+                case FIELD_HOUR_1_12:
+                    length = appendNumber(hour % 12 == 0 ? 12 : hour % 12,
+                            mFieldLengths[i], length);
+                    break;
+                case FIELD_HOUR_0_11:
+                    length = appendNumber(hour % 12, mFieldLengths[i], length);
+                    break;
+                case FIELD_MINUTE:
+                    length = appendNumber(minute, mFieldLengths[i], length);
+                    break;
+                case FIELD_AM_PM:
+                    String amPm = mAmPmStrings[hour < 12 ? 0 : 1];
+                    amPm.getChars(0, amPm.length(), mTimeChars, length);
+                    length += amPm.length();
+                    break;
+            }
+        }
+        mTimeLength = length;
+    }
+
+    /* Writes a number below 100 in the locale's digits, padded to minWidth. Returns the end. */
+    private int appendNumber(int value, int minWidth, int offset) {
+        if (value >= 10 || minWidth >= 2) {
+            mTimeChars[offset++] = (char) (mZeroDigit + value / 10);
+        }
+        mTimeChars[offset++] = (char) (mZeroDigit + value % 10);
+        return offset;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The forecast the phone sent us, decoded from the compact payload the phone app builds in
+ * WearForecastPayload. See there for the layout.
+ * <p>
+ * Dates are kept as day numbers, i.e. days since the epoch of the normalized UTC date, and
+ * temperatures in tenths of a degree Celsius.
+ */
+final class WearForecast {
+
+    private static final String TAG = WearForecast.class.getSimpleName();
+
+    /* The only payload version we know how to read */
+    private static final int VERSION = 1;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final long[] mDays;
+    private final int[] mWeatherIds;
+    private final int[] mHighTenths;
+    private final int[] mLowTenths;
+
+    private WearForecast(int size) {
+        mDays = new long[size];
+        mWeatherIds = new int[size];
+        mHighTenths = new int[size];
+        mLowTenths = new int[size];
+    }
+
+    /**
+     * @param payload The bytes the phone put in the weather data item
+     * @return The forecast, or null if the payload is missing, damaged or of a version we don't
+     * know
+     */
+    @Nullable
+    static WearForecast decode(@Nullable byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        if (payload[0] != VERSION) {
+            Log.w(TAG, "decode: unknown payload version " + payload[0]);
+            return null;
+        }
+
+        Reader reader = new Reader(payload, 1);
+        try {
+            long size = reader.readVarint();
+            /* Every day takes at least four bytes, which also rules out absurd sizes */
+            if (size * 4 > payload.length) {
+                throw new IllegalArgumentException("too many days: " + size);
+            }
+
+            WearForecast forecast = new WearForecast((int) size);
+            long day = 0;
+            int high = 0;
+            for (int i = 0; i < size; i++) {
+                day += reader.readVarint();
+                forecast.mDays[i] = day;
+                forecast.mWeatherIds[i] = (int) reader.readVarint();
+
+                high += unzigzag(reader.readVarint());
+                forecast.mHighTenths[i] = high;
+                forecast.mLowTenths[i] = high - (int) reader.readVarint();
+            }
+            return forecast;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "decode: damaged payload", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param timeMillis A point in time
+     * @param zoneOffset The offset of the local time zone from UTC at that time
+     * @return The day number of the local date at that time, comparable to {@link #getDay(int)}
+     */
+    static long toDay(long timeMillis, int zoneOffset) {
+        return (timeMillis + zoneOffset) / DAY_IN_MILLIS;
+    }
+
+    /**
+     * @return The index of the given day, or -1 if the forecast doesn't cover it
+     */
+    int indexOfDay(long day) {
+        int index = Arrays.binarySearch(mDays, day);
+        return index < 0 ? -1 : index;
+    }
+
+    int size() {
+        return mDays.length;
+    }
+
+    long getDay(int index) {
+        return mDays[index];
+    }
+
+    int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    /**
+     * @return The high temperature in the given units
+     */
+    double getHigh(int index, boolean metric) {
+        return toUnits(mHighTenths[index], metric);
+    }
+
+    /**
+     * @return The low temperature in the given units
+     */
+    double getLow(int index, boolean metric) {
+        return toUnits(mLowTenths[index], metric);
+    }
+
+    private static double toUnits(int tenthsCelsius, boolean metric) {
+        double celsius = tenthsCelsius / 10.0;
+        return metric ? celsius : celsius * 1.8 + 32;
+    }
+
+    private static int unzigzag(long value) {
+        int encoded = (int) value;
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /* Reads varints from the payload, throwing IllegalArgumentException when it runs out */
+    private static class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes, int position) {
+            mBytes = bytes;
+            mPosition = position;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mBytes.length) {
+                    throw new IllegalArgumentException("payload ends inside a number");
+                }
+                byte b = mBytes[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("number is too long");
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches and decodes weather icons off the main thread, one at a time.
+ * <p>
+ * All work runs on a single background thread, so a burst of syncs can't start a pile of
+ * decodes at once. Only the newest icon meant for display matters, so loading an icon for display
+ * cancels the one that was queued before it. Decoded icons are kept in a small LRU keyed by the
+ * asset's digest, which is the same for the same bytes however often the phone sends them, and
+ * icons the phone refers to by key are looked up through their digest.
+ * <p>
+ * An icon that drops out of the LRU while not on screen is decoded into the next time, instead of
+ * allocating a fresh bitmap. The icon on screen is never reused.
+ * <p>
+ * The PNG bytes of every cached icon are kept next to it and handed to the callback along with
+ * the bitmap, so that the watch face can store the icon it shows without asking the data layer
+ * for it again.
+ * <p>
+ * Everything except the work on the background thread happens on the main thread.
+ */
+final class WeatherIconLoader {
+
+    private static final String TAG = WeatherIconLoader.class.getSimpleName();
+
+    private static final String WEATHER_IMAGE_KEY = "img_weather";
+    private static final String WEATHER_ICON_PATH_PREFIX = "/weather_icon/";
+
+    /* There are only about ten different icons */
+    private static final int MAX_CACHED_ICONS = 8;
+
+    /* How long to wait for the data layer before giving up on an icon */
+    private static final long DATA_LAYER_TIMEOUT_SECONDS = 10;
+
+    interface Callback {
+        /**
+         * Called on the main thread once an icon that was loaded for display is ready.
+         *
+         * @param iconKey     The key the icon was loaded for, or null if it was sent without one
+         * @param icon        The decoded icon
+         * @param encodedIcon The icon as the phone sent it, if still known
+         */
+        void onIconLoaded(@Nullable String iconKey, Bitmap icon, @Nullable byte[] encodedIcon);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Callback mCallback;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, String> mDigestsByKey = new HashMap<>();
+    /* The PNG bytes of the icons in mIconsByDigest, dropped along with them */
+    private final Map<String, byte[]> mEncodedIconsByDigest = new HashMap<>();
+    private final LruCache<String, Bitmap> mIconsByDigest =
+            new LruCache<String, Bitmap>(MAX_CACHED_ICONS) {
+                @Override
+                protected void entryRemoved(boolean evicted, String digest,
+                                            Bitmap oldIcon, Bitmap newIcon) {
+                    mEncodedIconsByDigest.remove(digest);
+                    if (evicted) {
+                        offerReusable(oldIcon);
+                    }
+                }
+            };
+
+    /* The icon on screen, which must never be decoded into */
+    private Bitmap mDisplayedIcon;
+    /* A bitmap nobody shows or caches any more, guarded by this */
+    private Bitmap mReusableIcon;
+
+    private Future<?> mPendingDisplayLoad;
+    /* Bumped by each load for display, so that superseded loads that finished are ignored */
+    private int mDisplayGeneration;
+    private boolean mShutDown;
+
+    /* Counters, see getMetrics(); the decode counters are written on the background thread */
+    private int mCacheHits;
+    private volatile int mDecodes;
+    private volatile int mReusedDecodes;
+    private int mCancelledLoads;
+
+    WeatherIconLoader(GoogleApiClient googleApiClient, Callback callback) {
+        mGoogleApiClient = googleApiClient;
+        mCallback = callback;
+    }
+
+    /**
+     * Hands the icon for this key to the callback right away if it has been decoded already.
+     * Like a load for display, this supersedes any load for display that is still running.
+     *
+     * @return true if the icon was cached, false if it has to be loaded
+     */
+    boolean showCached(String iconKey) {
+        String digest = mDigestsByKey.get(iconKey);
+        Bitmap cached = digest == null ? null : mIconsByDigest.get(digest);
+        if (cached == null) {
+            return false;
+        }
+        mCacheHits++;
+        mDisplayGeneration++;
+        cancelPendingDisplayLoad();
+        mCallback.onIconLoaded(iconKey, cached, mEncodedIconsByDigest.get(digest));
+        return true;
+    }
+
+    /**
+     * Tells the loader which icon is on screen, so that it is never decoded into.
+     */
+    synchronized void setDisplayedIcon(Bitmap icon) {
+        mDisplayedIcon = icon;
+    }
+
+    /**
+     * Loads an icon in the background.
+     *
+     * @param iconKey The icon's key, or null for an icon the phone sent without one. Also used
+     *                to look the asset up in the data layer if none is given.
+     * @param asset   The icon's asset, if known
+     * @param display true to hand the icon to the callback when it is ready, which cancels the
+     *                previous load for display; false to only have it decoded and cached
+     */
+    void load(@Nullable final String iconKey, @Nullable final Asset asset, final boolean display) {
+        if (mShutDown) {
+            return;
+        }
+        final int displayGeneration = display ? ++mDisplayGeneration : -1;
+
+        if (asset != null && asset.getDigest() != null) {
+            Bitmap cached = mIconsByDigest.get(asset.getDigest());
+            if (cached != null) {
+                mCacheHits++;
+                if (iconKey != null) {
+                    mDigestsByKey.put(iconKey, asset.getDigest());
+                }
+                if (display) {
+                    cancelPendingDisplayLoad();
+                    mCallback.onIconLoaded(iconKey, cached,
+                            mEncodedIconsByDigest.get(asset.getDigest()));
+                }
+                return;
+            }
+        }
+
+        Future<?> load = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                loadInBackground(iconKey, asset, displayGeneration);
+            }
+        });
+        if (display) {
+            cancelPendingDisplayLoad();
+            mPendingDisplayLoad = load;
+        }
+    }
+
+    /**
+     * Cancels all loads and stops the background thread. The loader can't be used afterwards.
+     */
+    void shutdown() {
+        mShutDown = true;
+        mExecutor.shutdownNow();
+        mMainHandler.removeCallbacksAndMessages(null);
+        Log.d(TAG, "shutdown: " + getMetrics());
+    }
+
+    String getMetrics() {
+        return "cache hits " + mCacheHits
+                + ", decodes " + mDecodes
+                + " (into reused bitmaps " + mReusedDecodes + ")"
+                + ", cancelled loads " + mCancelledLoads;
+    }
+
+    private void cancelPendingDisplayLoad() {
+        if (mPendingDisplayLoad != null && mPendingDisplayLoad.cancel(true)) {
+            mCancelledLoads++;
+        }
+        mPendingDisplayLoad = null;
+    }
+
+    /* Runs on the background thread */
+    private void loadInBackground(@Nullable final String iconKey, @Nullable Asset asset,
+                                  final int displayGeneration) {
+        if (asset == null && iconKey != null) {
+            asset = findIconAsset(iconKey);
+        }
+        if (asset == null) {
+            Log.w(TAG, "loadInBackground: no asset for icon " + iconKey);
+            return;
+        }
+
+        final String digest = asset.getDigest();
+        Bitmap icon = digest == null ? null : mIconsByDigest.get(digest);
+        /* Stays null if the icon was cached meanwhile; its bytes are cached with it then */
+        byte[] encodedIcon = null;
+        if (icon == null) {
+            encodedIcon = readAsset(asset);
+            if (encodedIcon == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            icon = decode(encodedIcon);
+            if (icon == null) {
+                Log.w(TAG, "loadInBackground: couldn't decode icon " + iconKey);
+                return;
+            }
+        }
+
+        final Bitmap loadedIcon = icon;
+        final byte[] loadedEncodedIcon = encodedIcon;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded(iconKey, digest, loadedIcon, loadedEncodedIcon, displayGeneration);
+            }
+        });
+    }
+
+    /* Runs on the main thread */
+    private void onLoaded(@Nullable String iconKey, @Nullable String digest, Bitmap icon,
+                          @Nullable byte[] encodedIcon, int displayGeneration) {
+        if (mShutDown) {
+            return;
+        }
+        if (digest != null) {
+            if (encodedIcon == null) {
+                encodedIcon = mEncodedIconsByDigest.get(digest);
+            }
+            mIconsByDigest.put(digest, icon);
+            if (encodedIcon != null) {
+                mEncodedIconsByDigest.put(digest, encodedIcon);
+            }
+            if (iconKey != null) {
+                mDigestsByKey.put(iconKey, digest);
+            }
+        }
+        if (displayGeneration == mDisplayGeneration) {
+            mPendingDisplayLoad = null;
+            mCallback.onIconLoaded(iconKey, icon, encodedIcon);
+        }
+    }
+
+    /* Looks for the icon's data item among those the data layer has synced to us */
+    @Nullable
+    private Asset findIconAsset(String iconKey) {
+        Uri uri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(WEATHER_ICON_PATH_PREFIX + iconKey)
+                .build();
+        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
+                .await(DATA_LAYER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        try {
+            if (!dataItems.getStatus().isSuccess() || dataItems.getCount() == 0) {
+                return null;
+            }
+            return DataMapItem.fromDataItem(dataItems.get(0))
+                    .getDataMap().getAsset(WEATHER_IMAGE_KEY);
+        } finally {
+            dataItems.release();
+        }
+    }
+
+    @Nullable
+    private byte[] readAsset(Asset asset) {
+        DataApi.GetFdForAssetResult result = Wearable.DataApi
+                .getFdForAsset(mGoogleApiClient, asset)
+                .await(DATA_LAYER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        InputStream in = result.getInputStream();
+        if (in == null) {
+            Log.w(TAG, "readAsset: requested an unknown asset");
+            result.release();
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.w(TAG, "readAsset: ", e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            result.release();
+        }
+    }
+
+    /* Decodes into the reusable bitmap if there is one that is big enough */
+    @Nullable
+    private Bitmap decode(byte[] encodedIcon) {
+        Bitmap reusable = takeReusable();
+        mDecodes++;
+
+        if (reusable != null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inBitmap = reusable;
+            try {
+                Bitmap icon = BitmapFactory.decodeByteArray(
+                        encodedIcon, 0, encodedIcon.length, options);
+                if (icon != null) {
+                    mReusedDecodes++;
+                    return icon;
+                }
+            } catch (IllegalArgumentException e) {
+                /* The reusable bitmap is too small for this icon; decode into a new one */
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        /* Mutable, so that it can be decoded into once it drops out of the cache */
+        options.inMutable = true;
+        return BitmapFactory.decodeByteArray(encodedIcon, 0, encodedIcon.length, options);
+    }
+
+    private synchronized void offerReusable(Bitmap icon) {
+        if (icon != mDisplayedIcon && icon.isMutable()) {
+            mReusableIcon = icon;
+        }
+    }
+
+    private synchronized Bitmap takeReusable() {
+        Bitmap reusable = mReusableIcon;
+        mReusableIcon = null;
+        return reusable;
+    }
+}